@@ -0,0 +1,71 @@
+package benchmarks;
+
+import models.CompactFleet;
+import models.Locomotive;
+import models.PassengerWagon;
+import models.Train;
+
+/**
+ * Measures the heap taken per wagon by a train of passenger wagons, with and without the position index,
+ * and by a CompactFleet holding the same wagons; the numbers in the memory table of the README.
+ * The heap in use is compared after full garbage collections, so run it on its own JVM
+ * with a heap large enough for all representations at once:
+ *
+ *     java -Xmx2g -cp benchmarks/target/benchmarks.jar benchmarks.Footprint [wagons]
+ */
+public class Footprint {
+    private static final int DEFAULT_WAGONS = 1_000_000;
+
+    public static void main(String[] args) {
+        int wagons = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_WAGONS;
+
+        long before = usedHeap();
+        Train train = new Train(new Locomotive(1, wagons), "Amsterdam", "Paris");
+        for (int id = 1; id <= wagons; id++) {
+            train.attachToRear(new PassengerWagon(id, 40));
+        }
+        long withObjects = usedHeap();
+        train.enablePositionIndex();
+        long withIndex = usedHeap();
+
+        CompactFleet fleet = new CompactFleet(wagons);
+        int previous = CompactFleet.NONE;
+        for (int id = 1; id <= wagons; id++) {
+            int slot = fleet.addPassengerWagon(id, 40);
+            if (previous != CompactFleet.NONE) {
+                fleet.attachTo(slot, previous);
+            }
+            previous = slot;
+        }
+        long withFleet = usedHeap();
+
+        System.out.printf("%d wagons%n", wagons);
+        System.out.printf("Train with PassengerWagon objects  %6.1f bytes per wagon%n",
+                (withObjects - before) / (double) wagons);
+        System.out.printf("same, after enablePositionIndex()  %6.1f bytes per wagon%n",
+                (withIndex - before) / (double) wagons);
+        System.out.printf("CompactFleet                       %6.1f bytes per wagon (arrays: %.1f)%n",
+                (withFleet - withIndex) / (double) wagons, fleet.getFootprintInBytes() / (double) wagons);
+
+        // keep both alive until all measurements are taken
+        if (train.getNumberOfWagons() + fleet.size() != 2 * wagons) {
+            throw new IllegalStateException("Not all wagons were added");
+        }
+    }
+
+    /**
+     * @return the bytes of the heap in use after a few full garbage collections
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
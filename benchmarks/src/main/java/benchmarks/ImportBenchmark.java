@@ -0,0 +1,70 @@
+package benchmarks;
+
+import models.Yard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import persistence.ConsistImporter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of ConsistImporter in lines per second,
+ * for consist lists of 100,000 wagons in 100 trains held in memory (so the disk is left out).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ImportBenchmark {
+    private static final int TRAINS = 100;
+    private static final int WAGONS_PER_TRAIN = 1000;
+    private static final int LINES = TRAINS * WAGONS_PER_TRAIN;
+
+    private String csv;
+    private String json;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StringBuilder csvLines = new StringBuilder("locNumber,maxWagons,origin,destination,wagonId,type,capacity\n");
+        StringBuilder jsonLines = new StringBuilder();
+        int id = 1;
+        for (int t = 0; t < TRAINS; t++) {
+            for (int w = 0; w < WAGONS_PER_TRAIN; w++) {
+                csvLines.append(t).append(',').append(WAGONS_PER_TRAIN).append(",Amsterdam,Track ").append(t)
+                        .append(',').append(id).append(",passenger,40\n");
+                jsonLines.append("{\"locNumber\": ").append(t).append(", \"maxWagons\": ").append(WAGONS_PER_TRAIN)
+                        .append(", \"origin\": \"Amsterdam\", \"destination\": \"Track ").append(t)
+                        .append("\", \"wagonId\": ").append(id).append(", \"type\": \"passenger\", \"capacity\": 40}\n");
+                id++;
+            }
+        }
+        csv = csvLines.toString();
+        json = jsonLines.toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long importCsv() throws IOException {
+        return new ConsistImporter(new Yard(), (line, text, reason) -> { }).importCsv(new StringReader(csv));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long importJsonLines() throws IOException {
+        return new ConsistImporter(new Yard(), (line, text, reason) -> { }).importJsonLines(new StringReader(json));
+    }
+}
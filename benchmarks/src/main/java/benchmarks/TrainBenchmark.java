@@ -0,0 +1,165 @@
+package benchmarks;
+
+import models.Locomotive;
+import models.PassengerWagon;
+import models.Train;
+import models.Wagon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the operations of Train and Wagon on trains of increasing length.
+ *
+ * Mutating benchmarks undo their own change within the same invocation
+ * (e.g. attach a wagon and move it off again), so every invocation sees a train of the same length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TrainBenchmark {
+    private static final int EXTRA_WAGON_ID = 0;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int length;
+
+    @Param({"false", "true"})
+    private boolean positionIndex;
+
+    private Train train;
+    private Train spare;
+    private Wagon extraWagon;
+    private Wagon sequence;
+    private int middle;
+    private StringBuilder output = new StringBuilder();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        train = new Train(new Locomotive(1, length + 1), "Amsterdam", "Paris");
+        spare = new Train(new Locomotive(2, length + 1), "Amsterdam", "London");
+        for (int id = 1; id <= length; id++) {
+            train.attachToRear(new PassengerWagon(id, 40));
+        }
+        if (positionIndex) {
+            train.enablePositionIndex();
+            spare.enablePositionIndex();
+        }
+        extraWagon = new PassengerWagon(EXTRA_WAGON_ID, 40);
+        middle = (length + 1) / 2;
+
+        // a loose sequence of wagons that is not part of any train
+        sequence = new PassengerWagon(1, 40);
+        Wagon last = sequence;
+        for (int id = 2; id <= length; id++) {
+            Wagon next = new PassengerWagon(id, 40);
+            next.attachTo(last);
+            last = next;
+        }
+    }
+
+    @Benchmark
+    public boolean attachToRear() {
+        return train.attachToRear(extraWagon) & train.moveOneWagon(EXTRA_WAGON_ID, spare);
+    }
+
+    @Benchmark
+    public boolean insertAtFront() {
+        return train.insertAtFront(extraWagon) & train.moveOneWagon(EXTRA_WAGON_ID, spare);
+    }
+
+    @Benchmark
+    public boolean insertAtPosition() {
+        return train.insertAtPosition(middle, extraWagon) & train.moveOneWagon(EXTRA_WAGON_ID, spare);
+    }
+
+    @Benchmark
+    public Wagon findWagonById() {
+        return train.findWagonById(middle);
+    }
+
+    @Benchmark
+    public Wagon findWagonAtPosition() {
+        return train.findWagonAtPosition(middle);
+    }
+
+    @Benchmark
+    public boolean splitAtPosition() {
+        return train.splitAtPosition(middle, spare) & spare.splitAtPosition(1, train);
+    }
+
+    @Benchmark
+    public boolean moveOneWagon() {
+        return train.moveOneWagon(middle, spare) & spare.moveOneWagon(middle, train);
+    }
+
+    @Benchmark
+    public Wagon reverseSequence() {
+        sequence = sequence.reverseSequence();
+        return sequence;
+    }
+
+    @Benchmark
+    public Wagon reverse() {
+        train.reverse();
+        // follows the direction flag without relinking, unlike getFirstWagon
+        return train.findWagonAtPosition(1);
+    }
+
+    @Benchmark
+    public int getTotalNumberOfSeats() {
+        return train.getTotalNumberOfSeats();
+    }
+
+    @Benchmark
+    public String toStringOfTrain() {
+        return train.toString();
+    }
+
+    @Benchmark
+    public int appendToBuilder() {
+        output.setLength(0);
+        train.appendTo(output, Integer.MAX_VALUE);
+        return output.length();
+    }
+
+    @Benchmark
+    public int appendSummaryToBuilder() {
+        output.setLength(0);
+        train.appendTo(output, 10);
+        return output.length();
+    }
+
+    @Benchmark
+    public Train buildByAttachToRear() {
+        Train built = new Train(new Locomotive(3, length), "Amsterdam", "Berlin");
+        for (int id = 1; id <= length; id++) {
+            built.attachToRear(new PassengerWagon(id, 40));
+        }
+        return built;
+    }
+
+    @Benchmark
+    public Train buildByAttachAllToRear() {
+        Wagon[] wagons = new Wagon[length];
+        for (int id = 1; id <= length; id++) {
+            wagons[id - 1] = new PassengerWagon(id, 40);
+        }
+        Train built = new Train(new Locomotive(3, length), "Amsterdam", "Berlin");
+        built.attachAllToRear(wagons);
+        return built;
+    }
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+import models.Locomotive;
+import models.PassengerWagon;
+import models.Train;
+import models.Yard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import persistence.YardReader;
+import persistence.YardWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures saving and loading a yard with the binary yard file format,
+ * for a yard of 1,000 trains holding 1,000,000 wagons in total.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class YardFileBenchmark {
+    @Param({"1000"})
+    private int trains;
+
+    @Param({"1000"})
+    private int wagonsPerTrain;
+
+    private Yard yard;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        yard = new Yard();
+        int id = 1;
+        for (int t = 0; t < trains; t++) {
+            Train train = yard.createTrain(new Locomotive(t, wagonsPerTrain), "Amsterdam", "Track " + t);
+            for (int w = 0; w < wagonsPerTrain; w++) {
+                train.attachToRear(new PassengerWagon(id++, 40));
+            }
+        }
+        file = Files.createTempFile("yard", ".bin");
+        YardWriter.write(yard, file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Yard load() throws IOException {
+        return YardReader.read(file);
+    }
+
+    @Benchmark
+    public Path save() throws IOException {
+        YardWriter.write(yard, file);
+        return file;
+    }
+}
@@ -0,0 +1,121 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with a fixed relative precision, after the layout of HdrHistogram.
+ * Values below 32 get a bucket of their own; above that every power of two is split into 32 buckets,
+ * so a recorded value is known within 1/32 (about 3%) from 0 up to Long.MAX_VALUE.
+ * All buckets are allocated up front: recording a value allocates nothing and takes no lock.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private LongAdder totalCount = new LongAdder();
+    private LongAdder totalNanos = new LongAdder();
+    private AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one latency
+     *
+     * @param nanos (negative values are recorded as 0)
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(bucketOf(value));
+        totalCount.increment();
+        totalNanos.add(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * @return the mean of the recorded latencies (0 if none)
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalNanos.sum() / count;
+    }
+
+    /**
+     * @return the highest recorded latency (0 if none)
+     */
+    public long getMax() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency that the given percentage of the recorded latencies does not exceed,
+     * as the highest value of its bucket (0 if none)
+     */
+    public long getPercentile(double percentile) {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            count += counts.get(bucket);
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS && count > 0; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= target) {
+                return Math.min(highestValueOf(bucket), maxNanos.get());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Forgets all recorded latencies
+     * (latencies recorded while resetting may be partly kept)
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        totalCount.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    /**
+     * @param value (not negative)
+     * @return the bucket of the given value
+     */
+    static int bucketOf(long value) {
+        int highestBit = 63 - Long.numberOfLeadingZeros(value | 1);
+        if (highestBit < SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket
+     * @return the highest value that is counted in the given bucket
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,10 @@
+package metrics;
+
+/**
+ * Receives the metrics of the trains to pass them on, e.g. to a log or a monitoring system
+ * (see TrainMetrics.scheduleReports)
+ */
+@FunctionalInterface
+public interface MetricsReporter {
+    void report(TrainMetrics metrics);
+}
@@ -0,0 +1,265 @@
+package metrics;
+
+import models.Rejection;
+import models.Train;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Counts and times the operations of all trains, and counts why trains reject wagons.
+ * Installed with enable(); while no metrics are enabled, trains skip all measurements
+ * at the cost of one field read per operation.
+ * Recording allocates nothing, so the metrics can stay enabled in production.
+ */
+public class TrainMetrics implements TrainMetricsMXBean {
+    public static final String OBJECT_NAME = "models:type=TrainMetrics";
+
+    /**
+     * The measured operations of Train
+     */
+    public enum Operation {
+        /** attachToRear and attachAllToRear */
+        ATTACH,
+        /** insertAtFront and insertAtPosition */
+        INSERT,
+        /** moveOneWagon */
+        MOVE,
+        /** splitAtPosition */
+        SPLIT,
+        /** spliceAtPosition and the couple operations */
+        SPLICE,
+        /** findWagonAtPosition and findWagonById */
+        FIND,
+        /** reverse */
+        REVERSE
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Rejection[] REJECTIONS = Rejection.values();
+    private static ScheduledExecutorService reporters;
+
+    private LongAdder[] calls = new LongAdder[OPERATIONS.length];
+    private LongAdder[] rejectedCalls = new LongAdder[OPERATIONS.length];
+    private LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private LongAdder[] rejections = new LongAdder[REJECTIONS.length];
+
+    public TrainMetrics() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            calls[i] = new LongAdder();
+            rejectedCalls[i] = new LongAdder();
+            latencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < REJECTIONS.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Starts measuring the operations of all trains with new metrics,
+     * which are also registered as MBean under OBJECT_NAME
+     *
+     * @return the metrics
+     */
+    public static TrainMetrics enable() {
+        TrainMetrics metrics = new TrainMetrics();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+        }
+        Train.setMetrics(metrics);
+        return metrics;
+    }
+
+    /**
+     * Stops measuring the operations of trains and unregisters the MBean
+     */
+    public static void disable() {
+        Train.setMetrics(null);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Passes these metrics to the given reporter at a fixed rate, on a background thread
+     *
+     * @param reporter
+     * @param period
+     * @param unit
+     * @return the scheduled reports, to be cancelled when no longer needed
+     */
+    public ScheduledFuture<?> scheduleReports(MetricsReporter reporter, long period, TimeUnit unit) {
+        synchronized (TrainMetrics.class) {
+            if (reporters == null) {
+                reporters = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "train-metrics-reporter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        return reporters.scheduleAtFixedRate(() -> reporter.report(this), period, period, unit);
+    }
+
+    /**
+     * Records one call of an operation
+     *
+     * @param operation
+     * @param startNanos the System.nanoTime() at the start of the call
+     * @param succeeded whether the operation succeeded (or found what it looked for)
+     * @return succeeded
+     */
+    public boolean record(Operation operation, long startNanos, boolean succeeded) {
+        long nanos = System.nanoTime() - startNanos;
+        int i = operation.ordinal();
+        calls[i].increment();
+        if (!succeeded) {
+            rejectedCalls[i].increment();
+        }
+        latencies[i].record(nanos);
+        return succeeded;
+    }
+
+    /**
+     * Records why a train rejected wagons
+     *
+     * @param reason
+     */
+    public void rejected(Rejection reason) {
+        rejections[reason.ordinal()].increment();
+    }
+
+    public long getCalls(Operation operation) {
+        return calls[operation.ordinal()].sum();
+    }
+
+    public long getRejectedCalls(Operation operation) {
+        return rejectedCalls[operation.ordinal()].sum();
+    }
+
+    public long getRejections(Rejection reason) {
+        return rejections[reason.ordinal()].sum();
+    }
+
+    public LatencyHistogram getLatencies(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    @Override
+    public Map<String, Long> getCalls() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Operation operation : OPERATIONS) {
+            result.put(operation.name(), getCalls(operation));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getRejectedCalls() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Operation operation : OPERATIONS) {
+            result.put(operation.name(), getRejectedCalls(operation));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getRejectionReasons() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Rejection reason : REJECTIONS) {
+            result.put(reason.name(), getRejections(reason));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getMeanNanos() {
+        return byOperation(LatencyHistogram::getMean);
+    }
+
+    @Override
+    public Map<String, Long> getMedianNanos() {
+        return toLongs(byOperation(histogram -> histogram.getPercentile(50)));
+    }
+
+    @Override
+    public Map<String, Long> getP99Nanos() {
+        return toLongs(byOperation(histogram -> histogram.getPercentile(99)));
+    }
+
+    @Override
+    public Map<String, Long> getMaxNanos() {
+        return toLongs(byOperation(LatencyHistogram::getMax));
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            calls[i].reset();
+            rejectedCalls[i].reset();
+            latencies[i].reset();
+        }
+        for (LongAdder rejection : rejections) {
+            rejection.reset();
+        }
+    }
+
+    /**
+     * @return one line per operation that was called, with its count and latencies
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram histogram = getLatencies(operation);
+            if (histogram.getCount() > 0) {
+                text.append(String.format("%-8s calls=%d rejected=%d mean=%.0fns p50=%dns p99=%dns max=%dns%n",
+                        operation, getCalls(operation), getRejectedCalls(operation), histogram.getMean(),
+                        histogram.getPercentile(50), histogram.getPercentile(99), histogram.getMax()));
+            }
+        }
+        for (Rejection reason : REJECTIONS) {
+            if (getRejections(reason) > 0) {
+                text.append(String.format("rejected %s=%d%n", reason, getRejections(reason)));
+            }
+        }
+        return text.toString();
+    }
+
+    private Map<String, Double> byOperation(ToDoubleFunction<LatencyHistogram> statistic) {
+        Map<String, Double> result = new TreeMap<>();
+        for (Operation operation : OPERATIONS) {
+            result.put(operation.name(), statistic.applyAsDouble(getLatencies(operation)));
+        }
+        return result;
+    }
+
+    private static Map<String, Long> toLongs(Map<String, Double> values) {
+        Map<String, Long> result = new TreeMap<>();
+        values.forEach((key, value) -> result.put(key, value.longValue()));
+        return result;
+    }
+}
@@ -0,0 +1,25 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of TrainMetrics, as shown by JMX clients such as JConsole.
+ * Every map is keyed by the name of an operation or a rejection reason.
+ */
+public interface TrainMetricsMXBean {
+    Map<String, Long> getCalls();
+
+    Map<String, Long> getRejectedCalls();
+
+    Map<String, Long> getRejectionReasons();
+
+    Map<String, Double> getMeanNanos();
+
+    Map<String, Long> getMedianNanos();
+
+    Map<String, Long> getP99Nanos();
+
+    Map<String, Long> getMaxNanos();
+
+    void reset();
+}
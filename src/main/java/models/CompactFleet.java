@@ -0,0 +1,336 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * Stores a fleet of wagons in primitive arrays instead of one object per wagon.
+ * Every wagon occupies a slot; the slot holds its id, its type, its capacity
+ * (number of seats of a passenger wagon or maximum weight of a freight wagon)
+ * and the slots of its next and previous wagon (NONE if not connected).
+ * Sequences of wagons are chains of slots, following the same connection invariants as Wagon.
+ *
+ * Wagon ids are unique within the fleet, an id table maps them to their slots.
+ *
+ * Wagon objects are only created on demand, as views of a slot or when a sequence is loaded into a Train.
+ * Train cannot work on the arrays themselves: toTrain creates a new object for every wagon of the sequence,
+ * so the fleet only saves memory for the wagons that are at rest in it, not for the trains built from it.
+ * See benchmarks.Footprint for the measured sizes.
+ */
+public class CompactFleet {
+    public static final int NONE = -1;
+    public static final byte PASSENGER = 1;
+    public static final byte FREIGHT = 2;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] ids;
+    private byte[] types;
+    private int[] capacities;
+    private int[] nextSlots;
+    private int[] previousSlots;
+    private int[] slotsById;    // open addressing on the wagon id, holds slot + 1 (0 for an empty entry)
+    private int size;
+
+    /* Representation invariants:
+        all arrays but slotsById have the same length >= size
+        slotsById.length is a power of two, with size < slotsById.length * 3 / 4
+        slotsById holds the slot of every wagon under its id, the ids of the slots are distinct
+        nextSlots[s] == NONE || previousSlots[nextSlots[s]] == s       (tail-connection-invariant)
+        previousSlots[s] == NONE || nextSlots[previousSlots[s]] == s   (front-connection-invariant)
+     */
+
+    public CompactFleet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param expectedWagons the number of wagons to reserve space for
+     */
+    public CompactFleet(int expectedWagons) {
+        int capacity = Math.max(expectedWagons, 1);
+        ids = new int[capacity];
+        types = new byte[capacity];
+        capacities = new int[capacity];
+        nextSlots = new int[capacity];
+        previousSlots = new int[capacity];
+        int tableLength = 16;
+        while (tableLength * 3 <= capacity * 4L) {
+            tableLength *= 2;
+        }
+        slotsById = new int[tableLength];
+    }
+
+    /**
+     * @return the number of wagons in the fleet
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param wagonId
+     * @return the slot of the wagon with the given id
+     * (NONE if there is no such wagon in the fleet)
+     */
+    public int findSlot(int wagonId) {
+        int mask = slotsById.length - 1;
+        for (int entry = home(wagonId, mask); slotsById[entry] != 0; entry = (entry + 1) & mask) {
+            if (ids[slotsById[entry] - 1] == wagonId) {
+                return slotsById[entry] - 1;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param wagonId
+     * @param numberOfSeats
+     * @return the slot of the new wagon (NONE if the id is already used in the fleet)
+     */
+    public int addPassengerWagon(int wagonId, int numberOfSeats) {
+        return add(wagonId, PASSENGER, numberOfSeats);
+    }
+
+    /**
+     * @param wagonId
+     * @param maxWeight
+     * @return the slot of the new wagon (NONE if the id is already used in the fleet)
+     */
+    public int addFreightWagon(int wagonId, int maxWeight) {
+        return add(wagonId, FREIGHT, maxWeight);
+    }
+
+    /**
+     * Adds a copy of the given wagon to the fleet, not connected to any other wagon
+     *
+     * @param wagon
+     * @return the slot of the new wagon (NONE if the id is already used in the fleet)
+     */
+    public int addWagon(Wagon wagon) {
+        if (wagon instanceof PassengerWagon) {
+            return addPassengerWagon(wagon.getId(), ((PassengerWagon) wagon).getNumberOfSeats());
+        } else {
+            return addFreightWagon(wagon.getId(), ((FreightWagon) wagon).getMaxWeight());
+        }
+    }
+
+    private int add(int wagonId, byte type, int capacity) {
+        if (findSlot(wagonId) != NONE) {
+            return NONE;
+        }
+        if (size == ids.length) {
+            int newLength = ids.length * 2;
+            ids = Arrays.copyOf(ids, newLength);
+            types = Arrays.copyOf(types, newLength);
+            capacities = Arrays.copyOf(capacities, newLength);
+            nextSlots = Arrays.copyOf(nextSlots, newLength);
+            previousSlots = Arrays.copyOf(previousSlots, newLength);
+        }
+
+        int slot = size++;
+        ids[slot] = wagonId;
+        types[slot] = type;
+        capacities[slot] = capacity;
+        nextSlots[slot] = NONE;
+        previousSlots[slot] = NONE;
+        if (size * 4 >= slotsById.length * 3) {
+            slotsById = new int[slotsById.length * 2];
+            for (int s = 0; s < size; s++) {
+                putSlot(s);
+            }
+        } else {
+            putSlot(slot);
+        }
+        return slot;
+    }
+
+    private void putSlot(int slot) {
+        int mask = slotsById.length - 1;
+        int entry = home(ids[slot], mask);
+        while (slotsById[entry] != 0) {
+            entry = (entry + 1) & mask;
+        }
+        slotsById[entry] = slot + 1;
+    }
+
+    /**
+     * Spreads consecutive wagon ids over the id table
+     */
+    private static int home(int id, int mask) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int getId(int slot) {
+        return ids[slot];
+    }
+
+    public byte getType(int slot) {
+        return types[slot];
+    }
+
+    /**
+     * @param slot
+     * @return the number of seats of a passenger wagon or the maximum weight of a freight wagon
+     */
+    public int getCapacity(int slot) {
+        return capacities[slot];
+    }
+
+    public int getNextSlot(int slot) {
+        return nextSlots[slot];
+    }
+
+    public int getPreviousSlot(int slot) {
+        return previousSlots[slot];
+    }
+
+    /**
+     * attaches the wagon in the given slot at the tail of the wagon in previousSlot.
+     *
+     * @param slot
+     * @param previousSlot
+     * @throws RuntimeException if the wagon already has been appended to a wagon.
+     * @throws RuntimeException if the previous wagon already has got a wagon appended.
+     */
+    public void attachTo(int slot, int previousSlot) throws RuntimeException {
+        if (previousSlots[slot] != NONE) {
+            throw new RuntimeException("This wagon is already appended to a wagon");
+        } else if (nextSlots[previousSlot] != NONE) {
+            throw new RuntimeException("The previous wagon already has a wagon appended to it");
+        }
+
+        nextSlots[previousSlot] = slot;
+        previousSlots[slot] = previousSlot;
+    }
+
+    /**
+     * detaches the wagon in the given slot from its previous wagons.
+     * no action if the wagon has no previous wagon attached.
+     *
+     * @param slot
+     */
+    public void detachFromPrevious(int slot) {
+        int previousSlot = previousSlots[slot];
+        if (previousSlot != NONE) {
+            nextSlots[previousSlot] = NONE;
+            previousSlots[slot] = NONE;
+        }
+    }
+
+    /**
+     * @param slot
+     * @return the number of wagons in the sequence from the given slot until its final wagon
+     */
+    public int getSequenceLength(int slot) {
+        int length = 0;
+        for (int current = slot; current != NONE; current = nextSlots[current]) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * @param slot
+     * @return the total number of seats of the passenger wagons in the sequence from the given slot
+     */
+    public long getTotalNumberOfSeats(int slot) {
+        return totalCapacity(slot, PASSENGER);
+    }
+
+    /**
+     * @param slot
+     * @return the total maximum weight of the freight wagons in the sequence from the given slot
+     */
+    public long getTotalMaxWeight(int slot) {
+        return totalCapacity(slot, FREIGHT);
+    }
+
+    private long totalCapacity(int slot, byte type) {
+        long total = 0;
+        for (int current = slot; current != NONE; current = nextSlots[current]) {
+            if (types[current] == type) {
+                total += capacities[current];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Creates a wagon object with the id and capacity of the given slot.
+     * The view is not connected to any other wagon; changing its links does not change the fleet.
+     *
+     * @param slot
+     * @return a new PassengerWagon or FreightWagon
+     */
+    public Wagon view(int slot) {
+        if (types[slot] == PASSENGER) {
+            return new PassengerWagon(ids[slot], capacities[slot]);
+        } else {
+            return new FreightWagon(ids[slot], capacities[slot]);
+        }
+    }
+
+    /**
+     * Creates a train with wagon objects for the sequence starting at the given slot
+     *
+     * @param slot the first wagon of the sequence (NONE for a train without wagons)
+     * @param engine
+     * @param origin
+     * @param destination
+     * @return the new train
+     */
+    public Train toTrain(int slot, Locomotive engine, String origin, String destination) {
+        Train train = new Train(engine, origin, destination);
+        if (slot == NONE) {
+            return train;
+        }
+
+        Wagon first = view(slot);
+        Wagon last = first;
+        for (int current = nextSlots[slot]; current != NONE; current = nextSlots[current]) {
+            Wagon wagon = view(current);
+            wagon.attachTo(last);
+            last = wagon;
+        }
+        train.setFirstWagon(first);
+        return train;
+    }
+
+    /**
+     * Adds the wagons of the given train to the fleet as one connected sequence
+     * No wagon is added if any of their ids is already used in the fleet.
+     *
+     * @param train
+     * @return the slot of the first wagon of the sequence
+     * (NONE if the train has no wagons or one of its ids is already used)
+     */
+    public int store(Train train) {
+        for (Wagon w : train) {
+            if (findSlot(w.getId()) != NONE) {
+                return NONE;
+            }
+        }
+
+        int first = NONE;
+        int last = NONE;
+        for (Wagon w : train) {
+            int slot = addWagon(w);
+            if (last == NONE) {
+                first = slot;
+            } else {
+                attachTo(slot, last);
+            }
+            last = slot;
+        }
+        return first;
+    }
+
+    /**
+     * @return the number of bytes taken by the arrays of this fleet
+     */
+    public long getFootprintInBytes() {
+        // four int arrays, one byte array and the id table, each with a 16 byte array header
+        return 4L * (16 + 4L * ids.length) + (16 + (long) types.length) + (16 + 4L * slotsById.length);
+    }
+}
@@ -0,0 +1,445 @@
+package models;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A train that can be shared between threads.
+ * Wraps a Train and guards it with a StampedLock: the cached totals and id lookups
+ * are read optimistically without blocking, iteration works on a snapshot of the wagons,
+ * and changes take the write lock, so the connection invariants of the wagons
+ * are never observed half-way.
+ *
+ * Wagons given to a ConcurrentTrain must not be part of any other train;
+ * wagons enter and leave the train only through the methods of this class.
+ * Transfers between two concurrent trains lock both trains, always in the order
+ * in which the trains were created, so opposite transfers cannot deadlock.
+ * Seat reservations and cargo loads share the read lock: they run in parallel with each other
+ * (changing the wagons without locks), but never while wagons enter or leave the train.
+ */
+public class ConcurrentTrain implements Iterable<Wagon> {
+    private static final AtomicLong CREATED = new AtomicLong();
+
+    private final Train train;
+    private final StampedLock lock = new StampedLock();
+    private final long lockOrder = CREATED.getAndIncrement();
+
+    public ConcurrentTrain(Locomotive engine, String origin, String destination) {
+        this.train = new Train(engine, origin, destination);
+    }
+
+    public Locomotive getEngine() {
+        return train.getEngine();
+    }
+
+    /**
+     * @return the number of Wagons connected to the train
+     */
+    public int getNumberOfWagons() {
+        long stamp = lock.tryOptimisticRead();
+        int numberOfWagons = train.getNumberOfWagons();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                numberOfWagons = train.getNumberOfWagons();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return numberOfWagons;
+    }
+
+    /**
+     * @return the total number of seats on a passenger train
+     * (return 0 for a freight train)
+     */
+    public int getTotalNumberOfSeats() {
+        long stamp = lock.tryOptimisticRead();
+        int totalNumberOfSeats = train.getTotalNumberOfSeats();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                totalNumberOfSeats = train.getTotalNumberOfSeats();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return totalNumberOfSeats;
+    }
+
+    /**
+     * @return the number of seats on a passenger train that are not reserved
+     * (return 0 for a freight train)
+     */
+    public int getNumberOfFreeSeats() {
+        long stamp = lock.tryOptimisticRead();
+        int freeSeats = train.getNumberOfFreeSeats();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                freeSeats = train.getNumberOfFreeSeats();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return freeSeats;
+    }
+
+    /**
+     * Finds the first passenger wagon with the given number of adjacent free seats and reserves those seats
+     *
+     * @param count
+     * @return the reserved seats
+     * (null if no wagon has that many adjacent free seats)
+     */
+    public SeatReservation reserveAdjacentSeats(int count) {
+        long stamp = lock.readLock();
+        try {
+            return train.reserveAdjacentSeats(count);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Releases the seats of a reservation in this train
+     *
+     * @param reservation
+     * @return whether all seats were still reserved
+     */
+    public boolean release(SeatReservation reservation) {
+        long stamp = lock.readLock();
+        try {
+            return reservation.release();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the total weight of the current loads of the freight wagons
+     * (return 0 for a passenger train)
+     */
+    public long getTotalLoad() {
+        return train.getTotalLoad();
+    }
+
+    /**
+     * Tries to add the given weight to the load of the wagon with the given wagonId
+     *
+     * @param wagonId
+     * @param weight
+     * @return whether the wagon is a freight wagon of this train and the weight has been loaded
+     * @see FreightWagon#loadCargo(int)
+     */
+    public boolean loadCargo(int wagonId, int weight) {
+        long stamp = lock.readLock();
+        try {
+            Wagon wagon = train.findWagonById(wagonId);
+            return wagon instanceof FreightWagon && ((FreightWagon) wagon).loadCargo(weight);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Tries to take the given weight off the load of the wagon with the given wagonId
+     *
+     * @param wagonId
+     * @param weight
+     * @return whether the wagon is a freight wagon of this train and the weight has been unloaded
+     * @see FreightWagon#unloadCargo(int)
+     */
+    public boolean unloadCargo(int wagonId, int weight) {
+        long stamp = lock.readLock();
+        try {
+            Wagon wagon = train.findWagonById(wagonId);
+            return wagon instanceof FreightWagon && ((FreightWagon) wagon).unloadCargo(weight);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the total maximum weight of a freight train
+     * (return 0 for a passenger train)
+     */
+    public int getTotalMaxWeight() {
+        long stamp = lock.tryOptimisticRead();
+        int totalMaxWeight = train.getTotalMaxWeight();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                totalMaxWeight = train.getTotalMaxWeight();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return totalMaxWeight;
+    }
+
+    /**
+     * Finds the wagon with a given wagonId
+     *
+     * @param wagonId
+     * @return the wagon found
+     * (return null if no wagon was found with the given wagonId)
+     */
+    public Wagon findWagonById(int wagonId) {
+        long stamp = lock.tryOptimisticRead();
+        Wagon wagon = null;
+        try {
+            wagon = train.findWagonById(wagonId);
+        } catch (RuntimeException e) {
+            // the index was being resized while we looked, the validation below fails as well
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                wagon = train.findWagonById(wagonId);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return wagon;
+    }
+
+    /**
+     * Finds the wagon at the given position (starting at 1 for the first wagon of the train)
+     *
+     * @param position
+     * @return the wagon found at the given position
+     * (return null if the position is not valid for this train)
+     */
+    public Wagon findWagonAtPosition(int position) {
+        long stamp = lock.readLock();
+        try {
+            return train.findWagonAtPosition(position);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the wagons of the train, from front to rear, as they were at one moment in time
+     */
+    public Wagon[] snapshot() {
+        long stamp = lock.readLock();
+        try {
+            Wagon[] wagons = new Wagon[train.getNumberOfWagons()];
+            int i = 0;
+            for (Wagon w : train) {
+                wagons[i++] = w;
+            }
+            return wagons;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the wagons, so changes made while iterating are not seen
+     */
+    @Override
+    public Iterator<Wagon> iterator() {
+        return Arrays.asList(snapshot()).iterator();
+    }
+
+    /**
+     * Tries to attach the given sequence of wagons to the rear of the train
+     * No change is made if the attachment cannot be made,
+     * or when the sequence is part of another train.
+     *
+     * @param sequence
+     * @return whether the attachment could be completed successfully
+     */
+    public boolean attachToRear(Wagon sequence) {
+        long stamp = lock.writeLock();
+        try {
+            return sequence.getTrain() == null && train.attachToRear(sequence);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Tries to insert the given sequence of wagons at the front of the train
+     * No change is made if the insertion cannot be made,
+     * or when the sequence is part of another train.
+     *
+     * @param sequence
+     * @return whether the insertion could be completed successfully
+     */
+    public boolean insertAtFront(Wagon sequence) {
+        long stamp = lock.writeLock();
+        try {
+            return sequence.getTrain() == null && train.insertAtFront(sequence);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Tries to insert the given sequence of wagons at the given wagon position in the train
+     * No change is made if the insertion cannot be made,
+     * or when the sequence is part of another train.
+     *
+     * @param position
+     * @param sequence
+     * @return whether the insertion could be completed successfully
+     */
+    public boolean insertAtPosition(int position, Wagon sequence) {
+        long stamp = lock.writeLock();
+        try {
+            return sequence.getTrain() == null && train.insertAtPosition(position, sequence);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Tries to split this train and move the complete sequence of wagons from the given position
+     * to the rear of toTrain, which must not be shared with other threads
+     *
+     * @param position
+     * @param toTrain
+     * @return whether the move could be completed successfully
+     */
+    public boolean splitAtPosition(int position, Train toTrain) {
+        long stamp = lock.writeLock();
+        try {
+            return train.splitAtPosition(position, toTrain);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Tries to remove one Wagon with the given wagonId from this train
+     * and attach it at the rear of the given toTrain, as one atomic step
+     * No change is made if the removal or attachment cannot be made
+     *
+     * @param wagonId
+     * @param toTrain
+     * @return whether the move could be completed successfully
+     */
+    public boolean moveOneWagon(int wagonId, ConcurrentTrain toTrain) {
+        long[] stamps = lockBoth(toTrain);
+        try {
+            return train.moveOneWagon(wagonId, toTrain.train);
+        } finally {
+            unlockBoth(toTrain, stamps);
+        }
+    }
+
+    /**
+     * Tries to move all wagons with the given wagonIds from this train
+     * to the rear of the given toTrain, in the given order, as one atomic step
+     * No change is made if any of the wagons cannot be found or cannot be attached
+     * (all or nothing)
+     *
+     * @param wagonIds
+     * @param toTrain
+     * @return whether the move could be completed successfully
+     */
+    public boolean moveWagons(int[] wagonIds, ConcurrentTrain toTrain) {
+        long[] stamps = lockBoth(toTrain);
+        try {
+            if (toTrain == this || toTrain.train.getNumberOfWagons() + wagonIds.length > toTrain.getEngine().getMaxWagons()) {
+                return false;
+            }
+
+            //Check every wagon before moving any of them, and their load together
+            IdIndex<Wagon> selected = new IdIndex<>();
+            long load = 0;
+            for (int wagonId : wagonIds) {
+                Wagon wagon = train.findWagonById(wagonId);
+                if (wagon == null || selected.contains(wagonId) || !toTrain.train.canAttach(wagon, 1)) {
+                    return false;
+                }
+                selected.put(wagonId, wagon);
+                if (wagon instanceof FreightWagon) {
+                    load += ((FreightWagon) wagon).getLoad();
+                }
+            }
+            if (toTrain.train.exceedsPullingWeight(load)) {
+                return false;
+            }
+
+            for (int wagonId : wagonIds) {
+                train.moveOneWagon(wagonId, toTrain.train);
+            }
+            return true;
+        } finally {
+            unlockBoth(toTrain, stamps);
+        }
+    }
+
+    /**
+     * Tries to split this train and move the complete sequence of wagons from the given position
+     * to the rear of the given toTrain, as one atomic step
+     * No change is made if the split or re-attachment cannot be made
+     *
+     * @param position
+     * @param toTrain
+     * @return whether the move could be completed successfully
+     */
+    public boolean splitAtPosition(int position, ConcurrentTrain toTrain) {
+        long[] stamps = lockBoth(toTrain);
+        try {
+            return train.splitAtPosition(position, toTrain.train);
+        } finally {
+            unlockBoth(toTrain, stamps);
+        }
+    }
+
+    /**
+     * Takes the write locks of this train and the other train, oldest train first
+     *
+     * @return the stamps of this train and the other train
+     */
+    private long[] lockBoth(ConcurrentTrain other) {
+        long[] stamps = new long[2];
+        if (other == this) {
+            stamps[0] = lock.writeLock();
+        } else if (lockOrder < other.lockOrder) {
+            stamps[0] = lock.writeLock();
+            stamps[1] = other.lock.writeLock();
+        } else {
+            stamps[1] = other.lock.writeLock();
+            stamps[0] = lock.writeLock();
+        }
+        return stamps;
+    }
+
+    private void unlockBoth(ConcurrentTrain other, long[] stamps) {
+        if (other != this) {
+            other.lock.unlockWrite(stamps[1]);
+        }
+        lock.unlockWrite(stamps[0]);
+    }
+
+    /**
+     * Reverses the sequence of wagons in this train (if any)
+     */
+    public void reverse() {
+        long stamp = lock.writeLock();
+        try {
+            train.reverse();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        long stamp = lock.readLock();
+        try {
+            return train.toString();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -1,8 +1,22 @@
 package models;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A wagon for freight, which carries a load of at most its max weight.
+ * The load can be changed by many threads at once, with compare-and-set on the load.
+ * In a train whose engine has a weight limit, loading is checked against that limit
+ * and takes turns with the other loads of that train.
+ * Moving the wagon to another train is not synchronized with its loads:
+ * a load that runs while the wagon is moved may be counted in the total load of the train it left,
+ * so wagons that are loaded and moved by different threads belong in a ConcurrentTrain.
+ */
 public class FreightWagon extends Wagon {
+    private static final AtomicIntegerFieldUpdater<FreightWagon> LOAD =
+            AtomicIntegerFieldUpdater.newUpdater(FreightWagon.class, "load");
 
     private int maxWeight;
+    private volatile int load;
 
     public FreightWagon(int wagonId, int maxWeight) {
         super(wagonId);
@@ -13,4 +27,69 @@ public class FreightWagon extends Wagon {
         return maxWeight;
     }
 
+    /**
+     * @return the weight of the current load
+     */
+    public int getLoad() {
+        return load;
+    }
+
+    /**
+     * Tries to add the given weight to the load of this wagon
+     * The train of this wagon (if any) adds it to its total load,
+     * which must stay within the pulling weight of its engine.
+     *
+     * @param weight
+     * @return whether the weight fits within the max weight of this wagon
+     * and the pulling weight of the engine of its train, and has been loaded
+     */
+    public boolean loadCargo(int weight) {
+        return weight >= 0 && changeLoad(weight);
+    }
+
+    /**
+     * Tries to take the given weight off the load of this wagon
+     *
+     * @param weight
+     * @return whether the wagon carried at least that weight and it has been unloaded
+     */
+    public boolean unloadCargo(int weight) {
+        return weight >= 0 && changeLoad(-weight);
+    }
+
+    private boolean changeLoad(int change) {
+        while (true) {
+            Train train = getTrain();
+            if (change > 0 && train != null && train.hasWeightLimit()) {
+                //Check and load at once, so concurrent loads cannot pass the limit together
+                //(concurrent unloads only make the check more careful than needed)
+                synchronized (train) {
+                    if (getTrain() != train) {
+                        //the wagon has been moved to another train meanwhile, check against that one
+                        continue;
+                    }
+                    return !train.exceedsPullingWeight(change) && casLoad(change, train);
+                }
+            }
+            return casLoad(change, train);
+        }
+    }
+
+    private boolean casLoad(int change, Train train) {
+        while (true) {
+            int current = load;
+            long changed = (long) current + change;
+            if (changed < 0 || changed > maxWeight) {
+                return false;
+            }
+            if (LOAD.compareAndSet(this, current, (int) changed)) {
+                break;
+            }
+        }
+
+        if (train != null) {
+            train.loadChanged(change);
+        }
+        return true;
+    }
 }
@@ -0,0 +1,163 @@
+package models;
+
+/**
+ * Hash table from wagon id to a value, keyed on the primitive int id (no boxing).
+ * Uses open addressing with linear probing; a slot is empty when its value is null.
+ *
+ * @param <V> the type of the values stored by id
+ */
+class IdIndex<V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    /* Representation invariants:
+        keys.length == values.length and is a power of two
+        size < keys.length * 3 / 4
+        every stored key can be reached from its home slot without passing an empty slot
+     */
+
+    IdIndex() {
+        keys = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates an index that holds the given number of ids without resizing
+     *
+     * @param expectedSize
+     */
+    IdIndex(int expectedSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3 <= expectedSize * 4L) {
+            capacity *= 2;
+        }
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * @return the number of ids in the index
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param id
+     * @return the value stored for the given id
+     * (null if the id is not in the index)
+     */
+    @SuppressWarnings("unchecked")
+    V get(int id) {
+        int mask = keys.length - 1;
+        for (int slot = home(id, mask); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == id) {
+                return (V) values[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param id
+     * @return whether a value is stored for the given id
+     */
+    boolean contains(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Stores the value for the given id, replacing the value stored before (if any)
+     *
+     * @param id
+     * @param value (must not be null)
+     */
+    void put(int id, V value) {
+        if ((size + 1) * 4 >= keys.length * 3) {
+            resize(keys.length * 2);
+        }
+
+        int mask = keys.length - 1;
+        int slot = home(id, mask);
+        while (values[slot] != null) {
+            if (keys[slot] == id) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = id;
+        values[slot] = value;
+        size++;
+    }
+
+    /**
+     * Removes the given id from the index
+     * no action if the id is not in the index
+     *
+     * @param id
+     */
+    void remove(int id) {
+        int mask = keys.length - 1;
+        int slot = home(id, mask);
+        while (values[slot] != null && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        if (values[slot] == null) {
+            return;
+        }
+
+        // Shift later entries of the same probe run back into the gap,
+        // so no entry becomes unreachable from its home slot.
+        int gap = slot;
+        for (slot = (gap + 1) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            int home = home(keys[slot], mask);
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        values[gap] = null;
+        size--;
+    }
+
+    /**
+     * Removes all ids from the index
+     */
+    void clear() {
+        keys = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = home(oldKeys[i], mask);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spreads consecutive wagon ids over the table
+     */
+    private static int home(int id, int mask) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
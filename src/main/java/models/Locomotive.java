@@ -1,19 +1,47 @@
 package models;
 
 public class Locomotive {
+    public static final int NO_WEIGHT_LIMIT = Integer.MAX_VALUE;
+
     private int locNumber;
     private int maxWagons;
+    private int maxPullingWeight;
 
 
     public Locomotive(int locNumber, int maxWagons) {
+        this(locNumber, maxWagons, NO_WEIGHT_LIMIT);
+    }
+
+    /**
+     * @param locNumber
+     * @param maxWagons
+     * @param maxPullingWeight the total load of freight wagons the locomotive can pull
+     */
+    public Locomotive(int locNumber, int maxWagons, int maxPullingWeight) {
         this.locNumber = locNumber;
         this.maxWagons = maxWagons;
+        this.maxPullingWeight = maxPullingWeight;
+    }
+
+    public int getLocNumber() {
+        return locNumber;
     }
 
     public int getMaxWagons() {
         return maxWagons;
     }
 
+    /**
+     * The limit is checked when wagons are attached to the train of the locomotive,
+     * and when the wagons of that train are loaded.
+     *
+     * @return the total load of freight wagons the locomotive can pull
+     * (NO_WEIGHT_LIMIT if only the number of wagons is limited)
+     */
+    public int getMaxPullingWeight() {
+        return maxPullingWeight;
+    }
+
     // TODO
     @Override
     public String toString() {
@@ -1,8 +1,21 @@
 package models;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+/**
+ * A wagon with seats, numbered from 1 up to the number of seats.
+ * Seats can be reserved and released by many threads at once: the reservations are a bitmap
+ * of one bit per seat that is changed with compare-and-set on whole 64-bit words, without locks.
+ * The bitmap is only allocated at the first reservation, so wagons without reservations stay small.
+ */
 public class PassengerWagon extends Wagon {
+    private static final AtomicReferenceFieldUpdater<PassengerWagon, AtomicLongArray> RESERVATIONS =
+            AtomicReferenceFieldUpdater.newUpdater(PassengerWagon.class, AtomicLongArray.class, "reservations");
+
     private int numberOfSeats;
+    private volatile AtomicLongArray reservations;  // bit s-1 is set while seat s is reserved
+    // null as long as no seat has been reserved
 
     public PassengerWagon(int wagonId, int numberOfSeats) {
         super(wagonId);
@@ -12,4 +25,207 @@ public class PassengerWagon extends Wagon {
     public int getNumberOfSeats() {
         return numberOfSeats;
     }
+
+    /**
+     * @param seat
+     * @return whether the given seat is reserved
+     * (false if there is no such seat)
+     */
+    public boolean isReserved(int seat) {
+        AtomicLongArray bitmap = reservations;
+        if (bitmap == null || seat < 1 || seat > numberOfSeats) {
+            return false;
+        }
+        return (bitmap.get((seat - 1) >>> 6) & (1L << (seat - 1))) != 0;
+    }
+
+    /**
+     * @return the number of reserved seats, counted word by word
+     */
+    public int getNumberOfReservedSeats() {
+        AtomicLongArray bitmap = reservations;
+        if (bitmap == null) {
+            return 0;
+        }
+        int reserved = 0;
+        for (int word = 0; word < bitmap.length(); word++) {
+            reserved += Long.bitCount(bitmap.get(word));
+        }
+        return reserved;
+    }
+
+    public int getNumberOfFreeSeats() {
+        return numberOfSeats - getNumberOfReservedSeats();
+    }
+
+    /**
+     * Tries to reserve the given seat
+     *
+     * @param seat
+     * @return whether the seat was free and is now reserved
+     */
+    public boolean reserveSeat(int seat) {
+        return reserveSeats(seat, 1);
+    }
+
+    /**
+     * Tries to reserve the given number of adjacent seats, starting at firstSeat
+     * No seat is reserved if any of them is not free.
+     *
+     * @param firstSeat
+     * @param count
+     * @return whether all seats were free and are now reserved
+     */
+    public boolean reserveSeats(int firstSeat, int count) {
+        return changeSeats(firstSeat, count, true);
+    }
+
+    /**
+     * Releases the given seat
+     *
+     * @param seat
+     * @return whether the seat was reserved and is now free
+     */
+    public boolean releaseSeat(int seat) {
+        return releaseSeats(seat, 1);
+    }
+
+    /**
+     * Releases the given number of adjacent seats, starting at firstSeat
+     * No seat is released if any of them is not reserved.
+     *
+     * @param firstSeat
+     * @param count
+     * @return whether all seats were reserved and are now free
+     */
+    public boolean releaseSeats(int firstSeat, int count) {
+        return reservations != null && changeSeats(firstSeat, count, false);
+    }
+
+    /**
+     * Finds the first run of the given number of adjacent free seats and reserves it
+     * When another thread takes one of those seats first, the search starts over.
+     *
+     * @param count
+     * @return the first seat of the reserved run
+     * (0 if this wagon has no run of that many free seats)
+     */
+    public int reserveAdjacentSeats(int count) {
+        if (count < 1 || count > numberOfSeats) {
+            return 0;
+        }
+        AtomicLongArray bitmap = bitmap();
+        while (true) {
+            int firstSeat = findFreeSeats(bitmap, count);
+            if (firstSeat == 0 || changeSeats(firstSeat, count, true)) {
+                return firstSeat;
+            }
+        }
+    }
+
+    /**
+     * Scans the bitmap a word at a time for the first run of count free seats,
+     * skipping whole words of reserved seats and runs of free bits at once
+     *
+     * @return the first seat of the run (0 if none)
+     */
+    private int findFreeSeats(AtomicLongArray bitmap, int count) {
+        int run = 0;
+        int runStart = 0;
+        for (int word = 0; word < bitmap.length(); word++) {
+            long free = ~bitmap.get(word);
+            int seatsInWord = numberOfSeats - (word << 6);
+            if (seatsInWord < 64) {
+                free &= (1L << seatsInWord) - 1;
+            }
+
+            int bit = 0;
+            while (bit < 64) {
+                long rest = free >>> bit;
+                if (rest == 0) {
+                    run = 0;
+                    break;
+                }
+                // Skip the reserved seats, then take the free seats that follow them
+                int reserved = Long.numberOfTrailingZeros(rest);
+                if (reserved > 0) {
+                    run = 0;
+                    bit += reserved;
+                    rest >>>= reserved;
+                }
+                int freeSeats = Long.numberOfTrailingZeros(~rest);
+                if (run == 0) {
+                    runStart = (word << 6) + bit;
+                }
+                run += freeSeats;
+                if (run >= count) {
+                    return runStart + 1;
+                }
+                bit += freeSeats;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sets (reserve) or clears (release) the bits of the given seats, word by word
+     * If a word does not have all of its bits in the expected state, the words changed so far are undone.
+     * The train of this wagon (if any) is told how many seats changed.
+     */
+    private boolean changeSeats(int firstSeat, int count, boolean reserve) {
+        if (count < 1 || firstSeat < 1 || firstSeat > numberOfSeats - count + 1) {
+            return false;
+        }
+        AtomicLongArray bitmap = bitmap();
+        int from = firstSeat - 1;
+        int to = from + count;
+        for (int word = from >>> 6; word <= (to - 1) >>> 6; word++) {
+            if (!changeWord(bitmap, word, maskOf(word, from, to), reserve)) {
+                for (int done = from >>> 6; done < word; done++) {
+                    changeWord(bitmap, done, maskOf(done, from, to), !reserve);
+                }
+                return false;
+            }
+        }
+
+        Train train = getTrain();
+        if (train != null) {
+            train.seatsReserved(reserve ? count : -count);
+        }
+        return true;
+    }
+
+    private static boolean changeWord(AtomicLongArray bitmap, int word, long mask, boolean reserve) {
+        while (true) {
+            long bits = bitmap.get(word);
+            if ((bits & mask) != (reserve ? 0 : mask)) {
+                return false;
+            }
+            if (bitmap.compareAndSet(word, bits, reserve ? bits | mask : bits & ~mask)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the bits of the given word that belong to the bits from up to (but not including) to
+     */
+    private static long maskOf(int word, int from, int to) {
+        int low = Math.max(from - (word << 6), 0);
+        int high = Math.min(to - (word << 6), 64);
+        long mask = high == 64 ? -1L : (1L << high) - 1;
+        return mask & (-1L << low);
+    }
+
+    /**
+     * @return the bitmap of the reservations, allocated by the first thread that needs it
+     */
+    private AtomicLongArray bitmap() {
+        AtomicLongArray bitmap = reservations;
+        if (bitmap == null) {
+            RESERVATIONS.compareAndSet(this, null, new AtomicLongArray((numberOfSeats + 63) >>> 6));
+            bitmap = reservations;
+        }
+        return bitmap;
+    }
 }
@@ -0,0 +1,548 @@
+package models;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable train for trying out alternative consists.
+ * Every change returns a new version of the train and leaves the old version as it was;
+ * both versions share all wagons that the change did not touch.
+ * The wagons are kept in a path-copying implicit treap, ordered by position,
+ * so attach, insert and split take O(log n) expected time (plus the length of an attached sequence),
+ * and reverse takes O(1) by flipping a flag that is pushed down lazily.
+ *
+ * The wagons of a persistent train are values: only their id, type, and seats or maximum weight count.
+ * Wagons are copied when they enter a persistent train and when it is converted with toTrain(),
+ * so a persistent train never shares wagons with a Train.
+ * The wagons it hands out with findWagonAtPosition() and its iterator are copies as well,
+ * since its own wagons are shared by all versions of the train.
+ * Wagon ids are not checked for uniqueness until the train is converted back with toTrain().
+ */
+public final class PersistentTrain implements Iterable<Wagon> {
+
+    /**
+     * Node of the treap. Nodes are only changed while they are being created,
+     * once a node is part of a train version it is never changed again.
+     */
+    private static final class Node {
+        final Wagon wagon;
+        final int priority;
+        Node left;
+        Node right;
+        boolean reversed;
+        int size;
+        int seats;
+        int weight;
+
+        Node(Wagon wagon, int priority) {
+            this.wagon = wagon;
+            this.priority = priority;
+        }
+
+        Node(Node node) {
+            this(node.wagon, node.priority);
+            left = node.left;
+            right = node.right;
+            reversed = node.reversed;
+            size = node.size;
+            seats = node.seats;
+            weight = node.weight;
+        }
+    }
+
+    /**
+     * The result of moving wagons from one persistent train to another
+     */
+    public static final class Shunt {
+        private final PersistentTrain fromTrain;
+        private final PersistentTrain toTrain;
+
+        private Shunt(PersistentTrain fromTrain, PersistentTrain toTrain) {
+            this.fromTrain = fromTrain;
+            this.toTrain = toTrain;
+        }
+
+        /**
+         * @return the new version of the train the wagons were taken from
+         */
+        public PersistentTrain getFromTrain() {
+            return fromTrain;
+        }
+
+        /**
+         * @return the new version of the train the wagons were attached to
+         */
+        public PersistentTrain getToTrain() {
+            return toTrain;
+        }
+    }
+
+    private final Locomotive engine;
+    private final String origin;
+    private final String destination;
+    private final Node root;
+
+    /* Representation invariants:
+        an in-order walk of the tree, swapping the children below every node that is reversed
+        an odd number of times on the path from the root, visits the wagons from front to rear
+        node.priority >= child.priority for every node and its children
+        node.size, node.seats and node.weight are the count, seats and maximum weight of the subtree of node
+        all wagons are passenger wagons, or all wagons are freight wagons
+        size(root) <= engine.getMaxWagons()
+     */
+
+    private PersistentTrain(Locomotive engine, String origin, String destination, Node root) {
+        this.engine = engine;
+        this.origin = origin;
+        this.destination = destination;
+        this.root = root;
+    }
+
+    /**
+     * Creates a persistent train without wagons
+     *
+     * @param engine
+     * @param origin
+     * @param destination
+     * @return the new train
+     */
+    public static PersistentTrain empty(Locomotive engine, String origin, String destination) {
+        return new PersistentTrain(engine, origin, destination, null);
+    }
+
+    /**
+     * Creates a persistent train with copies of the wagons of the given train, in O(n).
+     * The wagons are read with the iterator of the train, so a reversed train is not relinked.
+     *
+     * @param train
+     * @return the new train
+     */
+    public static PersistentTrain of(Train train) {
+        return new PersistentTrain(train.getEngine(), train.getOrigin(), train.getDestination(),
+                build(train.iterator(), train.getNumberOfWagons()));
+    }
+
+    /**
+     * Creates a Train with copies of the wagons of this train, in O(n)
+     *
+     * @return the new train
+     * @throws IllegalStateException when a wagon id is used more than once in this train
+     */
+    public Train toTrain() {
+        Train train = new Train(engine, origin, destination);
+        List<Wagon> wagons = new ArrayList<>(getNumberOfWagons());
+        for (Wagon w : this) {
+            wagons.add(w);
+        }
+        if (!train.attachAllToRear(wagons)) {
+            throw new IllegalStateException("Wagon ids are not unique in " + this);
+        }
+        return train;
+    }
+
+    public Locomotive getEngine() {
+        return engine;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public boolean hasWagons() {
+        return root != null;
+    }
+
+    public boolean isPassengerTrain() {
+        return root != null && root.wagon instanceof PassengerWagon;
+    }
+
+    public boolean isFreightTrain() {
+        return root != null && root.wagon instanceof FreightWagon;
+    }
+
+    public int getNumberOfWagons() {
+        return size(root);
+    }
+
+    /**
+     * @return the total number of seats on a passenger train
+     * (return 0 for a freight train)
+     */
+    public int getTotalNumberOfSeats() {
+        return root == null ? 0 : root.seats;
+    }
+
+    /**
+     * @return the total maximum weight of a freight train
+     * (return 0 for a passenger train)
+     */
+    public int getTotalMaxWeight() {
+        return root == null ? 0 : root.weight;
+    }
+
+    /**
+     * Finds the wagon at the given position, in O(log n)
+     *
+     * @param position (starting at 1 for the first wagon of the train)
+     * @return a copy of the wagon found at the given position
+     * (return null if the position is not valid for this train)
+     */
+    public Wagon findWagonAtPosition(int position) {
+        if (position < 1 || position > size(root)) {
+            return null;
+        }
+
+        Node current = root;
+        boolean reversed = false;
+        while (true) {
+            reversed ^= current.reversed;
+            Node front = reversed ? current.right : current.left;
+            Node rear = reversed ? current.left : current.right;
+            if (position <= size(front)) {
+                current = front;
+            } else if (position == size(front) + 1) {
+                return copyOf(current.wagon);
+            } else {
+                position -= size(front) + 1;
+                current = rear;
+            }
+        }
+    }
+
+    /**
+     * Attaches copies of the given sequence of wagons to the rear of the train
+     *
+     * @param sequence the first wagon of the sequence (the wagons up to its last wagon are attached)
+     * @return the new version of the train
+     * (this version if the sequence is not compatible or the engine has insufficient capacity)
+     */
+    public PersistentTrain attachToRear(Wagon sequence) {
+        return insertAtPosition(getNumberOfWagons() + 1, sequence);
+    }
+
+    /**
+     * Inserts copies of the given sequence of wagons at the front of the train
+     *
+     * @param sequence the first wagon of the sequence (the wagons up to its last wagon are inserted)
+     * @return the new version of the train
+     * (this version if the sequence is not compatible or the engine has insufficient capacity)
+     */
+    public PersistentTrain insertAtFront(Wagon sequence) {
+        return insertAtPosition(1, sequence);
+    }
+
+    /**
+     * Inserts copies of the given sequence of wagons at the given position in the train
+     *
+     * @param position (from 1 up to n+1)
+     * @param sequence the first wagon of the sequence (the wagons up to its last wagon are inserted)
+     * @return the new version of the train
+     * (this version if the sequence is not compatible, the engine has insufficient capacity
+     * or the position is not valid for this train)
+     */
+    public PersistentTrain insertAtPosition(int position, Wagon sequence) {
+        int sequenceLength = sequence.getSequenceLength();
+        if (position < 1 || position > getNumberOfWagons() + 1
+                || getNumberOfWagons() + sequenceLength > engine.getMaxWagons()
+                || !hasTypeOf(root != null ? root.wagon : sequence, sequence)) {
+            return this;
+        }
+
+        Node[] parts = split(root, position - 1);
+        Node inserted = build(sequenceIterator(sequence), sequenceLength);
+        return withRoot(merge(merge(parts[0], inserted), parts[1]));
+    }
+
+    /**
+     * Moves the wagons from the given position to the rear of toTrain
+     *
+     * @param position
+     * @param toTrain
+     * @return the new versions of both trains
+     * (null if the position is not valid for this train, toTrain is this train, the trains are not compatible
+     * or the engine of toTrain has insufficient capacity)
+     */
+    public Shunt splitAtPosition(int position, PersistentTrain toTrain) {
+        int sequenceLength = getNumberOfWagons() - position + 1;
+        if (toTrain == this || position < 1 || sequenceLength < 1
+                || toTrain.getNumberOfWagons() + sequenceLength > toTrain.engine.getMaxWagons()
+                || toTrain.root != null && toTrain.isPassengerTrain() != isPassengerTrain()) {
+            return null;
+        }
+
+        Node[] parts = split(root, position - 1);
+        return new Shunt(withRoot(parts[0]), toTrain.withRoot(merge(toTrain.root, parts[1])));
+    }
+
+    /**
+     * Reverses the order of the wagons, in O(1)
+     *
+     * @return the new version of the train
+     */
+    public PersistentTrain reverse() {
+        return size(root) < 2 ? this : withRoot(flipped(root));
+    }
+
+    /**
+     * Iterates over copies of the wagons from front to rear
+     */
+    @Override
+    public Iterator<Wagon> iterator() {
+        return new WagonIterator(true);
+    }
+
+    /**
+     * Iterates over the wagons of the tree from front to rear,
+     * either handing out the shared wagons themselves (for use within this class only) or copies of them
+     */
+    private class WagonIterator implements Iterator<Wagon> {
+        private final boolean copies;
+        // Nodes still to visit, each with whether it is seen reversed from the root
+        private final ArrayDeque<Node> nodes = new ArrayDeque<>();
+        private final ArrayDeque<Boolean> reversed = new ArrayDeque<>();
+
+        WagonIterator(boolean copies) {
+            this.copies = copies;
+            pushFrontSpine(root, false);
+        }
+
+        private void pushFrontSpine(Node node, boolean flipped) {
+            while (node != null) {
+                flipped ^= node.reversed;
+                nodes.push(node);
+                reversed.push(flipped);
+                node = flipped ? node.right : node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !nodes.isEmpty();
+        }
+
+        @Override
+        public Wagon next() {
+            if (nodes.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node node = nodes.pop();
+            boolean flipped = reversed.pop();
+            pushFrontSpine(flipped ? node.left : node.right, flipped);
+            return copies ? copyOf(node.wagon) : node.wagon;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(engine);
+        for (Iterator<Wagon> iterator = new WagonIterator(false); iterator.hasNext(); ) {
+            iterator.next().appendTo(builder);
+        }
+        builder.append(" with ").append(getNumberOfWagons()).append(" wagons from ")
+                .append(origin).append(" to ").append(destination);
+        return builder.toString();
+    }
+
+    private PersistentTrain withRoot(Node newRoot) {
+        return new PersistentTrain(engine, origin, destination, newRoot);
+    }
+
+    /**
+     * @return whether all wagons of the given sequence are of the type of the given wagon
+     */
+    private static boolean hasTypeOf(Wagon typeWagon, Wagon sequence) {
+        boolean passenger = typeWagon instanceof PassengerWagon;
+        for (Wagon w = sequence; w != null; w = w.getNextWagon()) {
+            if ((w instanceof PassengerWagon) != passenger) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Wagon copyOf(Wagon wagon) {
+        if (wagon instanceof PassengerWagon) {
+            return new PassengerWagon(wagon.getId(), ((PassengerWagon) wagon).getNumberOfSeats());
+        }
+        return new FreightWagon(wagon.getId(), ((FreightWagon) wagon).getMaxWeight());
+    }
+
+    /**
+     * @return an iterator over the given wagon and the wagons linked behind it
+     */
+    private static Iterator<Wagon> sequenceIterator(Wagon sequence) {
+        return new Iterator<Wagon>() {
+            private Wagon current = sequence;
+
+            @Override
+            public boolean hasNext() {
+                return current != null;
+            }
+
+            @Override
+            public Wagon next() {
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+                Wagon wagon = current;
+                current = current.getNextWagon();
+                return wagon;
+            }
+        };
+    }
+
+    /**
+     * Builds a treap over copies of the first length wagons of the given iterator in linear time,
+     * using a stack of the right spine of the tree built so far.
+     */
+    private static Node build(Iterator<Wagon> wagons, int length) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ArrayList<Node> spine = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            Node node = new Node(copyOf(wagons.next()), random.nextInt());
+
+            // Nodes with a lower priority move into the left subtree of the new node
+            Node last = null;
+            while (!spine.isEmpty() && spine.get(spine.size() - 1).priority < node.priority) {
+                last = spine.remove(spine.size() - 1);
+            }
+            node.left = last;
+            if (!spine.isEmpty()) {
+                spine.get(spine.size() - 1).right = node;
+            }
+            spine.add(node);
+        }
+
+        // The bottom of the spine is the root, its subtree totals are computed once all links are final
+        Node top = spine.isEmpty() ? null : spine.get(0);
+        if (top != null) {
+            fixTotals(top);
+        }
+        return top;
+    }
+
+    /**
+     * Recomputes the totals of the whole subtree of the given node, children before parents
+     */
+    private static void fixTotals(Node subtree) {
+        ArrayList<Node> order = new ArrayList<>();
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(subtree);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            order.add(node);
+            if (node.left != null) {
+                stack.push(node.left);
+            }
+            if (node.right != null) {
+                stack.push(node.right);
+            }
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            update(order.get(i));
+        }
+    }
+
+    /**
+     * Splits the given tree into the first count wagons and the remaining wagons
+     * by copying the nodes on the path of the split
+     */
+    private static Node[] split(Node tree, int count) {
+        if (tree == null) {
+            return new Node[]{null, null};
+        }
+
+        Node copy = pushedCopy(tree);
+        Node[] parts;
+        if (size(copy.left) >= count) {
+            parts = split(copy.left, count);
+            copy.left = parts[1];
+            parts[1] = copy;
+        } else {
+            parts = split(copy.right, count - size(copy.left) - 1);
+            copy.right = parts[0];
+            parts[0] = copy;
+        }
+        update(copy);
+        return parts;
+    }
+
+    /**
+     * Joins two trees, with all wagons of the first in front of all wagons of the second,
+     * by copying the nodes on the path of the merge
+     */
+    private static Node merge(Node first, Node second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+
+        if (first.priority > second.priority) {
+            Node copy = pushedCopy(first);
+            copy.right = merge(copy.right, second);
+            update(copy);
+            return copy;
+        } else {
+            Node copy = pushedCopy(second);
+            copy.left = merge(first, copy.left);
+            update(copy);
+            return copy;
+        }
+    }
+
+    /**
+     * @return a new node for the same wagons as the given node, with its reversal pushed down to its children
+     */
+    private static Node pushedCopy(Node node) {
+        Node copy = new Node(node);
+        if (copy.reversed) {
+            copy.reversed = false;
+            copy.left = flipped(node.right);
+            copy.right = flipped(node.left);
+        }
+        return copy;
+    }
+
+    /**
+     * @return a new node for the same wagons as the given node, in reverse order
+     */
+    private static Node flipped(Node node) {
+        if (node == null) {
+            return null;
+        }
+        Node copy = new Node(node);
+        copy.reversed = !copy.reversed;
+        return copy;
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        node.seats = seats(node.left) + seats(node.right)
+                + (node.wagon instanceof PassengerWagon ? ((PassengerWagon) node.wagon).getNumberOfSeats() : 0);
+        node.weight = weight(node.left) + weight(node.right)
+                + (node.wagon instanceof FreightWagon ? ((FreightWagon) node.wagon).getMaxWeight() : 0);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int seats(Node node) {
+        return node == null ? 0 : node.seats;
+    }
+
+    private static int weight(Node node) {
+        return node == null ? 0 : node.weight;
+    }
+}
@@ -0,0 +1,366 @@
+package models;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Order-statistic index over the wagon chain of a train.
+ * Keeps one node per wagon in an implicit treap, ordered by position in the train,
+ * so a position can be looked up, and wagons can be inserted or split off at a position,
+ * in O(log n) expected time. The wagons keep their own next/previous links;
+ * the index only mirrors their order.
+ * Every node also keeps the number of seats and the max weight of its subtree,
+ * so the totals of a range of positions take O(log n) as well.
+ */
+class PositionIndex {
+
+    static class Node {
+        final Wagon wagon;
+        final int priority;
+        Node left;
+        Node right;
+        Node parent;
+        int size = 1;
+        int seats;
+        int maxWeight;
+
+        Node(Wagon wagon, int priority) {
+            this.wagon = wagon;
+            this.priority = priority;
+        }
+    }
+
+    private Node root;
+    private IdIndex<Node> nodesById = new IdIndex<>();
+    private Random random = new Random();
+
+    /* Representation invariants:
+        an in-order walk of the tree visits the wagons in the order of the train
+        node.priority >= child.priority for every node and its children
+        node.size == 1 + size(node.left) + size(node.right)
+        node.seats and node.maxWeight are the totals of the wagons in the subtree of node
+        root == null || root.parent == null
+        nodesById holds exactly the nodes in the tree
+     */
+
+    /**
+     * Builds the index for the given sequence of wagons
+     *
+     * @param sequence the first wagon of the train (can be null)
+     */
+    PositionIndex(Wagon sequence) {
+        if (sequence != null) {
+            root = build(sequence, sequence.getSequenceLength());
+        }
+    }
+
+    /**
+     * @return the number of wagons in the index
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * @param position (starting at 1 for the first wagon of the train)
+     * @return the wagon at the given position
+     * (null if the position is not valid)
+     */
+    Wagon wagonAt(int position) {
+        if (position < 1 || position > size(root)) {
+            return null;
+        }
+
+        Node current = root;
+        while (true) {
+            int leftSize = size(current.left);
+            if (position <= leftSize) {
+                current = current.left;
+            } else if (position == leftSize + 1) {
+                return current.wagon;
+            } else {
+                position -= leftSize + 1;
+                current = current.right;
+            }
+        }
+    }
+
+    /**
+     * @param fromPosition (starting at 1)
+     * @param toPosition (at most size())
+     * @return the total number of seats of the wagons from fromPosition up to and including toPosition
+     */
+    int numberOfSeats(int fromPosition, int toPosition) {
+        return totalUpTo(toPosition, true) - totalUpTo(fromPosition - 1, true);
+    }
+
+    /**
+     * @param fromPosition (starting at 1)
+     * @param toPosition (at most size())
+     * @return the total max weight of the wagons from fromPosition up to and including toPosition
+     */
+    int maxWeight(int fromPosition, int toPosition) {
+        return totalUpTo(toPosition, false) - totalUpTo(fromPosition - 1, false);
+    }
+
+    /**
+     * Adds up the seats or max weight of the wagons up to and including the given position,
+     * taking the totals of whole left subtrees on the way down
+     */
+    private int totalUpTo(int position, boolean seats) {
+        int total = 0;
+        Node current = root;
+        while (current != null && position > 0) {
+            int leftSize = size(current.left);
+            if (position <= leftSize) {
+                current = current.left;
+            } else {
+                total += total(current, seats) - total(current.right, seats);
+                position -= leftSize + 1;
+                current = current.right;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param wagon
+     * @return the position of the given wagon (starting at 1)
+     * (0 if the wagon is not in the index)
+     */
+    int positionOf(Wagon wagon) {
+        Node node = nodesById.get(wagon.getId());
+        if (node == null || node.wagon != wagon) {
+            return 0;
+        }
+
+        int position = size(node.left) + 1;
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                position += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return position;
+    }
+
+    /**
+     * Inserts the first length wagons of the given sequence in front of the given position
+     *
+     * @param position (from 1 up to size() + 1)
+     * @param sequence
+     * @param length
+     */
+    void insert(int position, Wagon sequence, int length) {
+        Node inserted = build(sequence, length);
+        Node[] parts = split(root, position - 1);
+        root = detach(merge(merge(parts[0], inserted), parts[1]));
+    }
+
+    /**
+     * Removes the wagon at the given position and all wagons behind it
+     *
+     * @param position (starting at 1)
+     */
+    void removeFrom(int position) {
+        Node[] parts = split(root, position - 1);
+        root = parts[0];
+        forget(parts[1]);
+    }
+
+    /**
+     * Removes length wagons, starting at the wagon at the given position
+     *
+     * @param position (starting at 1)
+     * @param length
+     */
+    void removeRange(int position, int length) {
+        Node[] front = split(root, position - 1);
+        Node[] rest = split(front[1], length);
+        forget(rest[0]);
+        root = detach(merge(front[0], rest[1]));
+    }
+
+    /**
+     * Drops the wagons of the given subtree, which has been split off, from the id lookup
+     */
+    private void forget(Node subtree) {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        if (subtree != null) {
+            stack.push(subtree);
+        }
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            nodesById.remove(node.wagon.getId());
+            if (node.left != null) {
+                stack.push(node.left);
+            }
+            if (node.right != null) {
+                stack.push(node.right);
+            }
+        }
+    }
+
+    /**
+     * Removes a single wagon from the index
+     * no action if the wagon is not in the index
+     *
+     * @param wagon
+     */
+    void remove(Wagon wagon) {
+        int position = positionOf(wagon);
+        if (position == 0) {
+            return;
+        }
+
+        Node[] front = split(root, position - 1);
+        Node[] rest = split(front[1], 1);
+        nodesById.remove(wagon.getId());
+        root = detach(merge(front[0], rest[1]));
+    }
+
+    /**
+     * Builds a treap over the first length wagons of the given sequence in linear time,
+     * using a stack of the right spine of the tree built so far.
+     */
+    private Node build(Wagon sequence, int length) {
+        ArrayList<Node> spine = new ArrayList<>();
+        Wagon current = sequence;
+        for (int i = 0; i < length; i++) {
+            Node node = new Node(current, random.nextInt());
+            nodesById.put(current.getId(), node);
+
+            // Nodes with a lower priority move into the left subtree of the new node
+            Node last = null;
+            while (!spine.isEmpty() && spine.get(spine.size() - 1).priority < node.priority) {
+                last = spine.remove(spine.size() - 1);
+            }
+            node.left = last;
+            if (last != null) {
+                last.parent = node;
+            }
+            if (!spine.isEmpty()) {
+                Node top = spine.get(spine.size() - 1);
+                top.right = node;
+                node.parent = top;
+            }
+            spine.add(node);
+            current = current.getNextWagon();
+        }
+
+        // The bottom of the spine is the root, its subtree sizes and totals are computed once all links are final
+        Node top = spine.isEmpty() ? null : spine.get(0);
+        if (top != null) {
+            fixSizes(top);
+        }
+        return top;
+    }
+
+    /**
+     * Recomputes the sizes and totals of the whole subtree of the given node, children before parents
+     */
+    private void fixSizes(Node subtree) {
+        ArrayList<Node> order = new ArrayList<>();
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(subtree);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            order.add(node);
+            if (node.left != null) {
+                stack.push(node.left);
+            }
+            if (node.right != null) {
+                stack.push(node.right);
+            }
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            update(order.get(i));
+        }
+    }
+
+    /**
+     * Splits the given tree into the first count nodes and the remaining nodes
+     *
+     * @return both parts, each with a null parent
+     */
+    private Node[] split(Node tree, int count) {
+        if (tree == null) {
+            return new Node[]{null, null};
+        }
+
+        Node[] parts;
+        if (size(tree.left) >= count) {
+            parts = split(tree.left, count);
+            tree.left = parts[1];
+            if (tree.left != null) {
+                tree.left.parent = tree;
+            }
+            parts[1] = tree;
+        } else {
+            parts = split(tree.right, count - size(tree.left) - 1);
+            tree.right = parts[0];
+            if (tree.right != null) {
+                tree.right.parent = tree;
+            }
+            parts[0] = tree;
+        }
+        update(tree);
+        detach(parts[0]);
+        detach(parts[1]);
+        return parts;
+    }
+
+    /**
+     * Joins two trees, with all nodes of the first in front of all nodes of the second
+     */
+    private Node merge(Node first, Node second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            first.right.parent = first;
+            update(first);
+            return first;
+        } else {
+            second.left = merge(first, second.left);
+            second.left.parent = second;
+            update(second);
+            return second;
+        }
+    }
+
+    private static Node detach(Node tree) {
+        if (tree != null) {
+            tree.parent = null;
+        }
+        return tree;
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        node.seats = total(node.left, true) + total(node.right, true);
+        node.maxWeight = total(node.left, false) + total(node.right, false);
+        if (node.wagon instanceof PassengerWagon) {
+            node.seats += ((PassengerWagon) node.wagon).getNumberOfSeats();
+        } else if (node.wagon instanceof FreightWagon) {
+            node.maxWeight += ((FreightWagon) node.wagon).getMaxWeight();
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int total(Node node, boolean seats) {
+        if (node == null) {
+            return 0;
+        }
+        return seats ? node.seats : node.maxWeight;
+    }
+}
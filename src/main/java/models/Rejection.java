@@ -0,0 +1,21 @@
+package models;
+
+/**
+ * Why a train refused to attach, insert, move or split wagons
+ */
+public enum Rejection {
+    /** the engine cannot pull the additional wagons */
+    CAPACITY,
+    /** the engine cannot pull the load of the additional wagons */
+    OVERWEIGHT,
+    /** the wagons are not of the type of the train (passenger or freight) */
+    TYPE_MISMATCH,
+    /** a wagon id is already used in the train or its yard */
+    DUPLICATE_ID,
+    /** a wagon is already connected to other wagons or a train where it must be separate */
+    NOT_SEPARATE,
+    /** the position is not valid for the train */
+    INVALID_POSITION,
+    /** no wagon with the given id is part of the train */
+    UNKNOWN_WAGON
+}
@@ -0,0 +1,42 @@
+package models;
+
+/**
+ * Adjacent seats that have been reserved in one passenger wagon (see Train.reserveAdjacentSeats)
+ */
+public class SeatReservation {
+    private final PassengerWagon wagon;
+    private final int firstSeat;
+    private final int numberOfSeats;
+
+    public SeatReservation(PassengerWagon wagon, int firstSeat, int numberOfSeats) {
+        this.wagon = wagon;
+        this.firstSeat = firstSeat;
+        this.numberOfSeats = numberOfSeats;
+    }
+
+    public PassengerWagon getWagon() {
+        return wagon;
+    }
+
+    public int getFirstSeat() {
+        return firstSeat;
+    }
+
+    public int getNumberOfSeats() {
+        return numberOfSeats;
+    }
+
+    /**
+     * Releases the reserved seats
+     *
+     * @return whether all seats were still reserved
+     */
+    public boolean release() {
+        return wagon.releaseSeats(firstSeat, numberOfSeats);
+    }
+
+    @Override
+    public String toString() {
+        return wagon + " seats " + firstSeat + "-" + (firstSeat + numberOfSeats - 1);
+    }
+}
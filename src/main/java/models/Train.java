@@ -1,17 +1,59 @@
 package models;
 
+import metrics.TrainMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Train implements Iterable<Wagon> {
+    private static final int RENDER_BUFFER_SIZE = 8192;
+
+    private static volatile TrainMetrics metrics;
+
     private String origin;
     private String destination;
     private Locomotive engine;
     private Wagon firstWagon;
+    private Wagon lastWagon;
+    private int numberOfWagons;
+    private int totalNumberOfSeats;
+    private int totalMaxWeight;
+    private LongAdder reservedSeats = new LongAdder();
+    private LongAdder totalLoad = new LongAdder();
+    private IdIndex<Wagon> wagonsById = new IdIndex<>();
+    private PositionIndex positionIndex;
+    private Yard yard;
+    private int yardIndex = -1;
+    private boolean reversed;
+    private int modificationCount;
+    private Wagon[] snapshot;
+    private int snapshotModificationCount;
 
 
     /* Representation invariants:
         firstWagon == null || firstWagon.previousWagon == null
         engine != null
+        lastWagon == null || lastWagon.nextWagon == null
+        (firstWagon == null) == (lastWagon == null)
+        numberOfWagons, totalNumberOfSeats and totalMaxWeight match the wagons from firstWagon to lastWagon
+        reservedSeats and totalLoad match the reserved seats and loads of the wagons from firstWagon to lastWagon,
+            as long as no wagon enters or leaves the train while its seats are reserved or its load changes
+        every wagon w from firstWagon to lastWagon has w.train == this
+        wagonsById holds exactly the wagons from firstWagon to lastWagon
+        positionIndex == null || positionIndex holds the wagons from firstWagon to lastWagon in order
+        the train runs from firstWagon to lastWagon, or from lastWagon back to firstWagon if reversed
      */
 
     public Train(Locomotive engine, String origin, String destination) {
@@ -50,7 +92,23 @@ public class Train implements Iterable<Wagon> {
         return engine;
     }
 
+    public String getOrigin() {
+        return origin;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * Returns the first wagon of the train
+     * A reversed train is relinked first, so the wagon links can be followed from front to rear;
+     * that takes O(n) once after every reverse. findWagonAtPosition(1) takes O(1) instead.
+     *
+     * @return the first wagon of the train
+     */
     public Wagon getFirstWagon() {
+        normalize();
         return firstWagon;
     }
 
@@ -58,38 +116,116 @@ public class Train implements Iterable<Wagon> {
      * Replaces the current sequence of wagons (if any) in the train
      * by the given new sequence of wagons (if any)
      * (sustaining all representation invariants)
+     * No change is made if the new sequence repeats a wagon id,
+     * or uses the id of a wagon of another train in the yard.
      *
      * @param newSequence the new sequence of wagons (can be null)
+     * @return whether the wagons have been replaced
+     */
+    public boolean setFirstWagon(Wagon newSequence) {
+        normalizeOwner(newSequence);
+        if (newSequence != null && hasDuplicateIds(newSequence)) {
+            return reject(Rejection.DUPLICATE_ID);
+        }
+        YardListener listener = getListener();
+        if (listener != null) {
+            listener.wagonsReplaced(this, newSequence);
+        }
+
+        //Let go of the current wagons, they no longer belong to this train
+        for (Wagon w : this) {
+            w.setTrain(null);
+            if (yard != null) {
+                yard.unregister(w);
+            }
+        }
+        firstWagon = null;
+        lastWagon = null;
+        reversed = false;
+        numberOfWagons = 0;
+        totalNumberOfSeats = 0;
+        totalMaxWeight = 0;
+        reservedSeats.reset();
+        totalLoad.reset();
+        wagonsById.clear();
+        modificationCount++;
+
+        if (newSequence != null) {
+            release(newSequence);
+            firstWagon = newSequence;
+            lastWagon = adopt(newSequence);
+        }
+        if (positionIndex != null) {
+            positionIndex = new PositionIndex(firstWagon);
+        }
+        return true;
+    }
+
+    /**
+     * Checks the ids of a sequence that is to replace all wagons of this train,
+     * so the ids of the current wagons of this train may be used again
+     *
+     * @param sequence
+     * @return whether the sequence repeats a wagon id, or uses the id of a wagon of another train in the yard
+     */
+    private boolean hasDuplicateIds(Wagon sequence) {
+        IdIndex<Wagon> sequenceIds = new IdIndex<>();
+        for (Wagon current = sequence; current != null; current = current.getNextWagon()) {
+            if (sequenceIds.contains(current.getId())) {
+                return true;
+            }
+            sequenceIds.put(current.getId(), current);
+            Wagon registered = yard == null ? null : yard.findWagonById(current.getId());
+            if (registered != null && registered != current && registered.getTrain() != this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps an index over the positions of the wagons in this train,
+     * so findWagonAtPosition, insertAtPosition, splitAtPosition and the range totals
+     * take O(log n) instead of walking the train.
+     * Costs an extra index node per wagon and some bookkeeping on every change of the train.
+     */
+    public void enablePositionIndex() {
+        if (positionIndex == null) {
+            positionIndex = new PositionIndex(firstWagon);
+        }
+    }
+
+    /**
+     * Drops the index over the positions of the wagons in this train
      */
-    public void setFirstWagon(Wagon newSequence) {
-        this.firstWagon = newSequence;
+    public void disablePositionIndex() {
+        positionIndex = null;
+    }
+
+    /**
+     * @return whether this train keeps an index over the positions of its wagons
+     */
+    public boolean hasPositionIndex() {
+        return positionIndex != null;
     }
 
     /**
      * @return the number of Wagons connected to the train
      */
     public int getNumberOfWagons() {
-        int numberOfWagons = 0;
-        for (Wagon w : this) {
-            numberOfWagons++;
-        }
         return numberOfWagons;
-
     }
 
     /**
+     * Returns the last wagon attached to the train
+     * A reversed train is relinked first, so the wagon links can be followed from rear to front;
+     * that takes O(n) once after every reverse. findWagonAtPosition(getNumberOfWagons()) takes O(1) instead.
+     *
      * @return the last wagon attached to the train
      */
     public Wagon getLastWagonAttached() {
-        if (hasWagons()) {
-            if (firstWagon.hasNextWagon()) {
-                return firstWagon.getLastWagonAttached();
-            } else {
-                return firstWagon;
-            }
-        }
-
-        return null;
+        normalize();
+        return lastWagon;
     }
 
     /**
@@ -98,17 +234,59 @@ public class Train implements Iterable<Wagon> {
      */
     public int getTotalNumberOfSeats() {
         if (isPassengerTrain()) {
-            int numberOfSeats = 0;
-            for (Wagon w : this) {
-                //Cast Wagon to PassengerWagon so getNumberOfSeats() can be used.
-                numberOfSeats += ((PassengerWagon) w).getNumberOfSeats();
-            }
-            return numberOfSeats;
+            return totalNumberOfSeats;
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return the number of seats on a passenger train that are not reserved
+     * (return 0 for a freight train)
+     */
+    public int getNumberOfFreeSeats() {
+        if (isPassengerTrain()) {
+            return totalNumberOfSeats - (int) reservedSeats.sum();
         }
 
         return 0;
     }
 
+    /**
+     * Finds the first passenger wagon, from front to rear, with the given number of adjacent free seats
+     * and reserves those seats. Reservations may be made by many threads at once,
+     * but not while wagons enter or leave the train (see ConcurrentTrain).
+     *
+     * @param count
+     * @return the reserved seats
+     * (null if no wagon has that many adjacent free seats)
+     */
+    public SeatReservation reserveAdjacentSeats(int count) {
+        if (count < 1 || count > getNumberOfFreeSeats()) {
+            return null;
+        }
+        for (Wagon w : this) {
+            PassengerWagon wagon = (PassengerWagon) w;
+            if (wagon.getNumberOfSeats() >= count) {
+                int firstSeat = wagon.reserveAdjacentSeats(count);
+                if (firstSeat > 0) {
+                    return new SeatReservation(wagon, firstSeat, count);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts seats that were reserved (positive) or released (negative) in one of the wagons of this train
+     * Only to be used by PassengerWagon.
+     *
+     * @param change
+     */
+    void seatsReserved(int change) {
+        reservedSeats.add(change);
+    }
+
     /**
      * calculates the total maximum weight of a freight train
      *
@@ -117,17 +295,85 @@ public class Train implements Iterable<Wagon> {
      */
     public int getTotalMaxWeight() {
         if (isFreightTrain()) {
-            int totalMaxWeight = 0;
-            for (Wagon w : this) {
-                //Cast Wagon to FreightWagon so getMaxWeight() can be used.
-                totalMaxWeight += ((FreightWagon) w).getMaxWeight();
-            }
             return totalMaxWeight;
         }
 
         return 0;
     }
 
+    /**
+     * Adds up the seats of the wagons from fromPosition up to and including toPosition
+     * Takes O(log n) with a position index, otherwise the range is walked.
+     *
+     * @param fromPosition (starting at 1 for the first wagon of the train)
+     * @param toPosition
+     * @return the total number of seats in the range
+     * (return 0 if the range is empty or not valid for this train, or for a freight train)
+     */
+    public int getNumberOfSeats(int fromPosition, int toPosition) {
+        return rangeTotal(fromPosition, toPosition, true);
+    }
+
+    /**
+     * Adds up the maximum weight of the wagons from fromPosition up to and including toPosition,
+     * e.g. getMaxWeight(k + 1, getNumberOfWagons()) for the weight behind position k
+     * Takes O(log n) with a position index, otherwise the range is walked.
+     *
+     * @param fromPosition (starting at 1 for the first wagon of the train)
+     * @param toPosition
+     * @return the total maximum weight in the range
+     * (return 0 if the range is empty or not valid for this train, or for a passenger train)
+     */
+    public int getMaxWeight(int fromPosition, int toPosition) {
+        return rangeTotal(fromPosition, toPosition, false);
+    }
+
+    private int rangeTotal(int fromPosition, int toPosition, boolean seats) {
+        if (fromPosition < 1 || toPosition > numberOfWagons || fromPosition > toPosition) {
+            return 0;
+        }
+        if (fromPosition == 1 && toPosition == numberOfWagons) {
+            return seats ? totalNumberOfSeats : totalMaxWeight;
+        }
+
+        //In a reversed train the range runs the other way along the links
+        int first = reversed ? numberOfWagons + 1 - toPosition : fromPosition;
+        int last = reversed ? numberOfWagons + 1 - fromPosition : toPosition;
+        if (positionIndex != null) {
+            return seats ? positionIndex.numberOfSeats(first, last) : positionIndex.maxWeight(first, last);
+        }
+
+        int total = 0;
+        Wagon wagon = linkedWagonAt(first);
+        for (int i = first; i <= last; i++) {
+            if (seats && wagon instanceof PassengerWagon) {
+                total += ((PassengerWagon) wagon).getNumberOfSeats();
+            } else if (!seats && wagon instanceof FreightWagon) {
+                total += ((FreightWagon) wagon).getMaxWeight();
+            }
+            wagon = wagon.getNextWagon();
+        }
+        return total;
+    }
+
+    /**
+     * @return the total weight of the current loads of the freight wagons
+     * (return 0 for a passenger train)
+     */
+    public long getTotalLoad() {
+        return totalLoad.sum();
+    }
+
+    /**
+     * Counts weight that was loaded (positive) or unloaded (negative) in one of the wagons of this train
+     * Only to be used by FreightWagon.
+     *
+     * @param change
+     */
+    void loadChanged(int change) {
+        totalLoad.add(change);
+    }
+
     /**
      * Finds the wagon at the given position (starting at 1 for the first wagon of the train)
      *
@@ -136,20 +382,57 @@ public class Train implements Iterable<Wagon> {
      * (return null if the position is not valid for this train)
      */
     public Wagon findWagonAtPosition(int position) {
-        int count = 0;
-        Wagon wagon = null;
-
-        for (Wagon w : this) {
-            count++;
-            // When the position in the train equals the position requested to find we break the for loop and return wagon;
-            if (count == position) {
-                wagon = w;
-                break;
-            }
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            return wagonAtPosition(position);
         }
+        long start = System.nanoTime();
+        Wagon wagon = wagonAtPosition(position);
+        metrics.record(TrainMetrics.Operation.FIND, start, wagon != null);
         return wagon;
+    }
 
+    private Wagon wagonAtPosition(int position) {
+        return linkedWagonAt(reversed ? numberOfWagons + 1 - position : position);
+    }
+
+    /**
+     * Finds the wagon at the given position in the links from firstWagon to lastWagon,
+     * regardless of the direction of the train
+     *
+     * @param position
+     * @return the wagon found at the given position
+     * (return null if the position is not valid for this train)
+     */
+    private Wagon linkedWagonAt(int position) {
+        //Both ends are known without a walk or a lookup in the index
+        if (position == 1) {
+            return firstWagon;
+        }
+        if (position == numberOfWagons) {
+            return lastWagon;
+        }
+        if (positionIndex != null) {
+            return positionIndex.wagonAt(position);
+        }
+        if (position < 1 || position > numberOfWagons) {
+            return null;
+        }
 
+        //Walk from whichever end of the train is closer
+        Wagon wagon;
+        if (position <= numberOfWagons / 2) {
+            wagon = firstWagon;
+            for (int i = 1; i < position; i++) {
+                wagon = wagon.getNextWagon();
+            }
+        } else {
+            wagon = lastWagon;
+            for (int i = numberOfWagons; i > position; i--) {
+                wagon = wagon.getPreviousWagon();
+            }
+        }
+        return wagon;
     }
 
     /**
@@ -160,14 +443,70 @@ public class Train implements Iterable<Wagon> {
      * (return null if no wagon was found with the given wagonId)
      */
     public Wagon findWagonById(int wagonId) {
-        for (Wagon w : this) {
-            //Loop till we find a wagon with the same id and return the wagon w;
-            if (w.getId() == wagonId) {
-                return w;
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            return wagonsById.get(wagonId);
+        }
+        long start = System.nanoTime();
+        Wagon wagon = wagonsById.get(wagonId);
+        metrics.record(TrainMetrics.Operation.FIND, start, wagon != null);
+        return wagon;
+    }
+
+    /**
+     * Finds the position of the given wagon (starting at 1 for the first wagon of the train)
+     *
+     * @param wagon
+     * @return the position of the wagon
+     * (return 0 if the wagon is not part of this train)
+     */
+    public int findPositionOfWagon(Wagon wagon) {
+        if (wagon.getTrain() != this) {
+            return 0;
+        }
+        int position = 1;
+        if (positionIndex != null) {
+            position = positionIndex.positionOf(wagon);
+        } else {
+            for (Wagon w = firstWagon; w != wagon; w = w.getNextWagon()) {
+                position++;
             }
         }
+        return reversed ? numberOfWagons + 1 - position : position;
+    }
 
-        return null;
+    /**
+     * @return the yard this train is registered in
+     * (null if the train is not part of a yard)
+     */
+    public Yard getYard() {
+        return yard;
+    }
+
+    /**
+     * Registers the yard this train is part of.
+     * Only to be used by Yard, which keeps its wagon index in line with the trains.
+     *
+     * @param yard
+     * @param yardIndex the index of this train in the trains of the yard
+     */
+    void setYard(Yard yard, int yardIndex) {
+        this.yard = yard;
+        this.yardIndex = yardIndex;
+    }
+
+    /**
+     * @return the index of this train in the trains of its yard
+     */
+    int getYardIndex() {
+        return yardIndex;
+    }
+
+    /**
+     * @return the listener of the yard of this train (null if none)
+     */
+    private YardListener getListener() {
+        return yard == null ? null : yard.getListener();
     }
 
     /**
@@ -179,141 +518,536 @@ public class Train implements Iterable<Wagon> {
      * @return
      */
     public boolean canAttach(Wagon sequence) {
-        //First looks for the provided wagon in the train to see if the wagon is already part of the train
-        int wagonId = sequence.getId();
-        Wagon wagon = findWagonById(wagonId);
+        normalizeOwner(sequence);
+        return canAttach(sequence, sequence.getSequenceLength());
+    }
 
-        //Can't attach if the amount of wagons added will exceed the engine's capacity or is already part of the train
-        if (this.getNumberOfWagons() + sequence.getSequenceLength() > engine.getMaxWagons() || wagon != null) {
-            return false;
+    /**
+     * Determines if the first sequenceLength wagons of the given sequence can be attached to the train
+     *
+     * @param sequence
+     * @param sequenceLength the number of wagons that will be attached
+     * @return
+     */
+    boolean canAttach(Wagon sequence, int sequenceLength) {
+        Rejection rejection = attachRejection(sequence, sequenceLength);
+        if (rejection != null) {
+            return reject(rejection);
+        }
+        return true;
+    }
+
+    /**
+     * Determines why the given sequence of wagons cannot be attached to the train,
+     * without attempting the attachment
+     *
+     * @param sequence
+     * @return the reason (null if the sequence can be attached)
+     */
+    public Rejection attachRejection(Wagon sequence) {
+        normalizeOwner(sequence);
+        return attachRejection(sequence, sequence.getSequenceLength());
+    }
+
+    /**
+     * Determines why the first sequenceLength wagons of the given sequence cannot be attached to the train
+     *
+     * @param sequence
+     * @param sequenceLength the number of wagons that will be attached
+     * @return the reason (null if the wagons can be attached)
+     */
+    Rejection attachRejection(Wagon sequence, int sequenceLength) {
+        //Can't attach if the amount of wagons added will exceed the engine's capacity
+        if (numberOfWagons + sequenceLength > engine.getMaxWagons()) {
+            return Rejection.CAPACITY;
+        }
+        //Can't attach if a wagon is already part of the train
+        else if (containsAnyId(sequence, sequenceLength)) {
+            return Rejection.DUPLICATE_ID;
         }
         //Can't attach if the type of wagon isn't in line with the train type
         else if (this.isPassengerTrain() && sequence instanceof FreightWagon || this.isFreightTrain() && sequence instanceof PassengerWagon) {
-            return false;
+            return Rejection.TYPE_MISMATCH;
         }
-        //Return true if all the above checks are passed
+        //Can't attach if the engine cannot pull the load of the sequence on top of the current load
+        else if (sequence instanceof FreightWagon && hasWeightLimit() && exceedsPullingWeight(loadOf(sequence, sequenceLength))) {
+            return Rejection.OVERWEIGHT;
+        }
+        //No reason if all the above checks are passed
         else {
-            return true;
+            return null;
         }
     }
 
     /**
-     * Tries to attach the given sequence of wagons to the rear of the train
-     * No change is made if the attachment cannot be made.
-     * (when the sequence is not compatible or the engine has insufficient capacity)
+     * @return whether the engine limits the load it can pull,
+     * so the load of wagons needs to be added up before they are attached
+     */
+    boolean hasWeightLimit() {
+        return engine.getMaxPullingWeight() != Locomotive.NO_WEIGHT_LIMIT;
+    }
+
+    /**
+     * @param additionalLoad
+     * @return whether the current load and the additional load exceed the pulling weight of the engine
+     */
+    boolean exceedsPullingWeight(long additionalLoad) {
+        return hasWeightLimit() && getTotalLoad() + additionalLoad > engine.getMaxPullingWeight();
+    }
+
+    /**
+     * Adds up the load of the first sequenceLength wagons of a sequence that runs up to the rear of its train (if any)
+     * The cached total load of that train serves for the whole train, or minus the load of the wagons
+     * in front of the sequence when those are fewer to walk than the sequence itself.
      *
      * @param sequence
-     * @return whether the attachment could be completed successfully
+     * @param sequenceLength
+     * @return the total load of those wagons
      */
-    public boolean attachToRear(Wagon sequence) {
-        //Check if the firstWagon is null and make the sequence the firstWagon if so
-        if (!hasWagons()) {
-            setFirstWagon(sequence);
-            return true;
-        }
-
-        //Check if the sequence can attach to the train
-        if (canAttach(sequence)) {
-            //Extra check to see if the wagon that is going to get attached has a previousWagon and uses reAttachTo() if so else attachTo()
-            if (sequence.hasPreviousWagon()) {
-                sequence.reAttachTo(getLastWagonAttached());
-            } else {
-                sequence.attachTo(getLastWagonAttached());
+    private static long loadOf(Wagon sequence, int sequenceLength) {
+        Train owner = sequence.getTrain();
+        if (owner != null && !owner.reversed && sequenceLength > owner.numberOfWagons / 2) {
+            long load = owner.getTotalLoad();
+            for (Wagon w = owner.firstWagon; w != sequence; w = w.getNextWagon()) {
+                load -= ((FreightWagon) w).getLoad();
             }
-            return true;
+            return load;
         }
-        return false;
+        return walkLoad(sequence, sequenceLength);
     }
 
     /**
-     * Tries to insert the given sequence of wagons at the front of the train
-     * No change is made if the insertion cannot be made.
-     * (when the sequence is not compatible or the engine has insufficient capacity)
-     *
-     * @param sequence
-     * @return whether the insertion could be completed successfully
+     * @return the total load of the first sequenceLength wagons of the given sequence
      */
-    public boolean insertAtFront(Wagon sequence) {
-        if (!hasWagons()) {
-            setFirstWagon(sequence);
-            return true;
+    private static long walkLoad(Wagon sequence, int sequenceLength) {
+        long load = 0;
+        Wagon current = sequence;
+        for (int i = 0; i < sequenceLength; i++) {
+            load += ((FreightWagon) current).getLoad();
+            current = current.getNextWagon();
         }
+        return load;
+    }
 
-        //Check if sequence canAttach to train
-        if (canAttach(sequence)) {
-            //Check if the sequence has more than 1 wagon, if so reAttachTo the lastWagonAttached
-            if (sequence.getSequenceLength() > 1) {
-                firstWagon.reAttachTo(sequence.getLastWagonAttached());
-            } else {
-                firstWagon.reAttachTo(sequence);
-            }
-            //Set the firstWagon to the newSequence
-            setFirstWagon(sequence);
-            return true;
+    /**
+     * Counts the given rejection in the metrics of the trains (if enabled)
+     *
+     * @param rejection
+     * @return false, for the caller to return
+     */
+    private static boolean reject(Rejection rejection) {
+        TrainMetrics metrics = Train.metrics;
+        if (metrics != null) {
+            metrics.rejected(rejection);
         }
         return false;
+    }
 
+    /**
+     * @return the metrics that measure the operations of all trains (null if not enabled)
+     */
+    public static TrainMetrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * Tries to insert the given sequence of wagons at the given wagon position in the train
-     * No change is made if the insertion cannot be made.
-     * (when the sequence is not compatible of the engine has insufficient capacity
-     * or the given position is not valid in this train)
+     * Starts or stops measuring the operations of all trains (see TrainMetrics.enable)
+     *
+     * @param metrics the metrics to record into (null to stop measuring)
+     */
+    public static void setMetrics(TrainMetrics metrics) {
+        Train.metrics = metrics;
+    }
+
+    /**
+     * Looks up the ids of the first sequenceLength wagons of the given sequence in this train,
+     * in the yard of this train (if any) and in the sequence itself
      *
      * @param sequence
-     * @return whether the insertion could be completed successfully
+     * @param sequenceLength
+     * @return whether any of those wagon ids is already part of this train,
+     * used by another wagon in the yard, or used twice in the sequence
      */
-    public boolean insertAtPosition(int position, Wagon sequence) {
-        //Find if there is a wagon at the desired position
-        Wagon wagon = findWagonAtPosition(position);
-
-        //If it passes through the tests of canAttach and there is no wagon at desired position we continue
-        if (canAttach(sequence) && wagon == null) {
-            //If desired position is 1 we sequence as firstWagon
-            if (position == 1) {
-                setFirstWagon(sequence);
+    private boolean containsAnyId(Wagon sequence, int sequenceLength) {
+        //A single wagon cannot repeat its own id
+        IdIndex<Wagon> sequenceIds = sequenceLength > 1 ? new IdIndex<>(sequenceLength) : null;
+        Wagon current = sequence;
+        for (int i = 0; i < sequenceLength; i++) {
+            if (wagonsById.contains(current.getId()) || yard != null && yard.isUsedByOtherWagon(current)) {
                 return true;
             }
-
-            //Checks if there is a wagon at the spot before the desired position,
-            //if not the connection cannot be made i.e. 4 wagon and position 6 was desired for connection
-            wagon = findWagonAtPosition(position - 1);
-            if (wagon != null) {
-                sequence.attachTo(wagon);
-                return true;
-            } else {
-                return false;
+            if (sequenceIds != null) {
+                if (sequenceIds.contains(current.getId())) {
+                    return true;
+                }
+                sequenceIds.put(current.getId(), current);
             }
+            current = current.getNextWagon();
         }
-
         return false;
     }
 
     /**
-     * Tries to remove one Wagon with the given wagonId from this train
-     * and attach it at the rear of the given toTrain
-     * No change is made if the removal or attachment cannot be made
-     * (when the wagon cannot be found, or the trains are not compatible
-     * or the engine of toTrain has insufficient capacity)
+     * Tries to attach the given sequence of wagons to the rear of the train
+     * No change is made if the attachment cannot be made.
+     * (when the sequence is not compatible or the engine has insufficient capacity)
      *
-     * @param wagonId
-     * @param toTrain
-     * @return whether the move could be completed successfully
+     * @param sequence
+     * @return whether the attachment could be completed successfully
      */
-    public boolean moveOneWagon(int wagonId, Train toTrain) {
-        //Find the wagon that needs to be moved
-        Wagon wagon = findWagonById(wagonId);
-
-        //If the wagon doesn't exist we return false since there is nothing to be moved
-        if (wagon == null) {
+    public boolean attachToRear(Wagon sequence) {
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            return attach(sequence);
+        }
+        long start = System.nanoTime();
+        return metrics.record(TrainMetrics.Operation.ATTACH, start, attach(sequence));
+    }
+
+    private boolean attach(Wagon sequence) {
+        //Check if the sequence can attach to the train
+        normalizeOwner(sequence);
+        int sequenceLength = sequence.getSequenceLength();
+        if (!canAttach(sequence, sequenceLength)) {
+            return false;
+        }
+        YardListener listener = getListener();
+        if (listener != null) {
+            listener.wagonsInserted(this, numberOfWagons + 1, sequence, sequenceLength);
+        }
+        appendSequence(sequence);
+        return true;
+    }
+
+    /**
+     * Attaches the given sequence of wagons to the rear of the train, without any checks
+     *
+     * @param sequence
+     */
+    private void appendSequence(Wagon sequence) {
+        //Take the sequence away from wherever it is connected right now
+        release(sequence);
+        //The rear of a reversed train is in front of firstWagon, facing the other way
+        if (reversed) {
+            linkBeforeFirst(turnAround(sequence));
+        } else {
+            linkAfterLast(sequence);
+        }
+    }
+
+    /**
+     * Inserts the given sequence of wagons at the front of the train, without any checks
+     *
+     * @param sequence
+     */
+    private void prependSequence(Wagon sequence) {
+        release(sequence);
+        if (reversed) {
+            linkAfterLast(turnAround(sequence));
+        } else {
+            linkBeforeFirst(sequence);
+        }
+    }
+
+    /**
+     * Adopts the given separate sequence and links it behind lastWagon
+     *
+     * @param sequence
+     */
+    private void linkAfterLast(Wagon sequence) {
+        int position = numberOfWagons + 1;
+        Wagon newLastWagon = adopt(sequence);
+        indexInsert(position, sequence);
+
+        if (hasWagons()) {
+            sequence.attachTo(lastWagon);
+        } else {
+            firstWagon = sequence;
+        }
+        lastWagon = newLastWagon;
+    }
+
+    /**
+     * Adopts the given separate sequence and links it in front of firstWagon
+     *
+     * @param sequence
+     */
+    private void linkBeforeFirst(Wagon sequence) {
+        Wagon sequenceLastWagon = adopt(sequence);
+        indexInsert(1, sequence);
+
+        //Put the current wagons behind the last wagon of the sequence
+        if (hasWagons()) {
+            firstWagon.attachTo(sequenceLastWagon);
+        } else {
+            lastWagon = sequenceLastWagon;
+        }
+        firstWagon = sequence;
+    }
+
+    /**
+     * Reverses a separate sequence of wagons
+     *
+     * @param sequence
+     * @return the first wagon of the reversed sequence
+     */
+    private static Wagon turnAround(Wagon sequence) {
+        return sequence.hasNextWagon() ? sequence.reverseSequence() : sequence;
+    }
+
+    /**
+     * Tries to attach all given wagons to the rear of the train, in the given order
+     * The whole batch is checked once (type of the wagons, unique ids and capacity of the engine)
+     * and then linked in a single pass.
+     * No change is made if any of the wagons cannot be attached.
+     * (when a wagon is not compatible or already connected to other wagons,
+     * when ids are used twice or the engine has insufficient capacity)
+     *
+     * @param wagons separate wagons, not connected to any other wagon or train
+     * @return whether the attachment could be completed successfully
+     */
+    public boolean attachAllToRear(List<? extends Wagon> wagons) {
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            return attachAll(wagons);
+        }
+        long start = System.nanoTime();
+        return metrics.record(TrainMetrics.Operation.ATTACH, start, attachAll(wagons));
+    }
+
+    private boolean attachAll(List<? extends Wagon> wagons) {
+        if (wagons.isEmpty()) {
+            return true;
+        }
+        if (numberOfWagons + wagons.size() > engine.getMaxWagons()) {
+            return reject(Rejection.CAPACITY);
+        }
+
+        //All wagons must be of the type of the train, or of the type of the first wagon for a train without wagons
+        boolean passengerWagons = hasWagons() ? isPassengerTrain() : wagons.get(0) instanceof PassengerWagon;
+        IdIndex<Wagon> batch = new IdIndex<>();
+        long batchLoad = 0;
+        for (Wagon w : wagons) {
+            if (w.hasPreviousWagon() || w.hasNextWagon() || w.getTrain() != null) {
+                return reject(Rejection.NOT_SEPARATE);
+            }
+            if ((w instanceof PassengerWagon) != passengerWagons) {
+                return reject(Rejection.TYPE_MISMATCH);
+            }
+            if (wagonsById.contains(w.getId()) || batch.contains(w.getId())
+                    || yard != null && yard.isUsedByOtherWagon(w)) {
+                return reject(Rejection.DUPLICATE_ID);
+            }
+            batch.put(w.getId(), w);
+            if (w instanceof FreightWagon) {
+                batchLoad += ((FreightWagon) w).getLoad();
+            }
+        }
+        if (exceedsPullingWeight(batchLoad)) {
+            return reject(Rejection.OVERWEIGHT);
+        }
+
+        //Link the wagons behind each other, then behind the current last wagon
+        Wagon first = wagons.get(0);
+        Wagon previous = null;
+        for (Wagon w : wagons) {
+            if (previous != null) {
+                w.attachTo(previous);
+            }
+            previous = w;
+        }
+        YardListener listener = getListener();
+        if (listener != null) {
+            try {
+                listener.wagonsInserted(this, numberOfWagons + 1, first, wagons.size());
+            } catch (RuntimeException e) {
+                //The listener refused the change, so the wagons are left separate as they were given
+                for (Wagon w : wagons) {
+                    w.detachFromPrevious();
+                }
+                throw e;
+            }
+        }
+        if (reversed) {
+            linkBeforeFirst(turnAround(first));
+        } else {
+            linkAfterLast(first);
+        }
+        return true;
+    }
+
+    /**
+     * Tries to attach all given wagons to the rear of the train, in the given order
+     *
+     * @param wagons separate wagons, not connected to any other wagon or train
+     * @return whether the attachment could be completed successfully
+     * @see #attachAllToRear(List)
+     */
+    public boolean attachAllToRear(Wagon... wagons) {
+        return attachAllToRear(Arrays.asList(wagons));
+    }
+
+    /**
+     * Tries to attach all wagons of the given stream to the rear of the train, in the order of the stream
+     *
+     * @param wagons separate wagons, not connected to any other wagon or train
+     * @return whether the attachment could be completed successfully
+     * @see #attachAllToRear(List)
+     */
+    public boolean attachAllToRear(Stream<? extends Wagon> wagons) {
+        return attachAllToRear(wagons.collect(Collectors.toList()));
+    }
+
+    /**
+     * Tries to insert the given sequence of wagons at the front of the train
+     * No change is made if the insertion cannot be made.
+     * (when the sequence is not compatible or the engine has insufficient capacity)
+     *
+     * @param sequence
+     * @return whether the insertion could be completed successfully
+     */
+    public boolean insertAtFront(Wagon sequence) {
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            return insertFront(sequence);
+        }
+        long start = System.nanoTime();
+        return metrics.record(TrainMetrics.Operation.INSERT, start, insertFront(sequence));
+    }
+
+    private boolean insertFront(Wagon sequence) {
+        //Check if sequence canAttach to train
+        normalizeOwner(sequence);
+        int sequenceLength = sequence.getSequenceLength();
+        if (!canAttach(sequence, sequenceLength)) {
+            return false;
+        }
+        YardListener listener = getListener();
+        if (listener != null) {
+            listener.wagonsInserted(this, 1, sequence, sequenceLength);
+        }
+        prependSequence(sequence);
+        return true;
+    }
+
+    /**
+     * Tries to insert the given sequence of wagons at the given wagon position in the train
+     * No change is made if the insertion cannot be made.
+     * (when the sequence is not compatible of the engine has insufficient capacity
+     * or the given position is not valid in this train)
+     *
+     * @param sequence
+     * @return whether the insertion could be completed successfully
+     */
+    public boolean insertAtPosition(int position, Wagon sequence) {
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            return insertAt(position, sequence);
+        }
+        long start = System.nanoTime();
+        return metrics.record(TrainMetrics.Operation.INSERT, start, insertAt(position, sequence));
+    }
+
+    private boolean insertAt(int position, Wagon sequence) {
+        //Valid positions run from the front (1) up to just behind the last wagon
+        if (position < 1 || position > numberOfWagons + 1) {
+            return reject(Rejection.INVALID_POSITION);
+        }
+        if (position == 1) {
+            return insertFront(sequence);
+        }
+        if (position == numberOfWagons + 1) {
+            return attach(sequence);
+        }
+
+        normalizeOwner(sequence);
+        int sequenceLength = sequence.getSequenceLength();
+        if (!canAttach(sequence, sequenceLength)) {
             return false;
         }
+        YardListener listener = getListener();
+        if (listener != null) {
+            listener.wagonsInserted(this, position, sequence, sequenceLength);
+        }
+
+        insertSequence(position, sequence);
+        return true;
+    }
+
+    /**
+     * Inserts the given sequence of wagons at the given wagon position in the train, without any checks
+     *
+     * @param position (from 1 up to numberOfWagons + 1)
+     * @param sequence
+     */
+    private void insertSequence(int position, Wagon sequence) {
+        if (position == 1) {
+            prependSequence(sequence);
+            return;
+        }
+        if (position == numberOfWagons + 1) {
+            appendSequence(sequence);
+            return;
+        }
+
+        //Put the sequence in between the wagon before the desired position and the wagon currently at that position,
+        //counted from lastWagon and facing the other way in a reversed train
+        int linkPosition = reversed ? numberOfWagons + 2 - position : position;
+        Wagon previous = linkedWagonAt(linkPosition - 1);
+        Wagon next = previous.getNextWagon();
+        release(sequence);
+        if (reversed) {
+            sequence = turnAround(sequence);
+        }
+        Wagon sequenceLastWagon = adopt(sequence);
+        indexInsert(linkPosition, sequence);
 
-        //Check to see if the wagon can attach to the desired train.
-        if (toTrain.canAttach(wagon)) {
-            wagon.removeFromSequence();
-            toTrain.attachToRear(wagon);
+        previous.detachTail();
+        sequence.attachTo(previous);
+        next.attachTo(sequenceLastWagon);
+    }
+
+    /**
+     * Tries to remove one Wagon with the given wagonId from this train
+     * and attach it at the rear of the given toTrain
+     * No change is made if the removal or attachment cannot be made
+     * (when the wagon cannot be found, or the trains are not compatible
+     * or the engine of toTrain has insufficient capacity)
+     *
+     * @param wagonId
+     * @param toTrain
+     * @return whether the move could be completed successfully
+     */
+    public boolean moveOneWagon(int wagonId, Train toTrain) {
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            return move(wagonId, toTrain);
+        }
+        long start = System.nanoTime();
+        return metrics.record(TrainMetrics.Operation.MOVE, start, move(wagonId, toTrain));
+    }
+
+    private boolean move(int wagonId, Train toTrain) {
+        //Find the wagon that needs to be moved
+        Wagon wagon = wagonsById.get(wagonId);
+
+        //If the wagon doesn't exist we return false since there is nothing to be moved
+        if (wagon == null) {
+            return reject(Rejection.UNKNOWN_WAGON);
+        }
+
+        //Check to see if the wagon can attach to the desired train, only this one wagon is moved.
+        if (toTrain.canAttach(wagon, 1)) {
+            YardListener listener = getListener();
+            if (listener != null) {
+                listener.wagonMoved(this, wagon, toTrain);
+            }
+            YardListener toListener = toTrain.getListener();
+            if (toListener != null && toTrain.yard != yard) {
+                toListener.wagonsInserted(toTrain, toTrain.numberOfWagons + 1, wagon, 1);
+            }
+            removeWagon(wagon);
+            toTrain.appendSequence(wagon);
             return true;
         } else {
             return false;
@@ -333,38 +1067,526 @@ public class Train implements Iterable<Wagon> {
      * @return whether the move could be completed successfully
      */
     public boolean splitAtPosition(int position, Train toTrain) {
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            return split(position, toTrain);
+        }
+        long start = System.nanoTime();
+        return metrics.record(TrainMetrics.Operation.SPLIT, start, split(position, toTrain));
+    }
+
+    private boolean split(int position, Train toTrain) {
+        //The wagons that leave must be linked from front to rear
+        normalize();
         //Find the wagon where we want to split from
-        Wagon wagon = findWagonAtPosition(position);
+        Wagon wagon = wagonAtPosition(position);
+        if (wagon == null) {
+            return reject(Rejection.INVALID_POSITION);
+        }
 
-        //Detaches the desired wagon from its previousWagons and attaches it to the trains rear if the checks are passed and wagon != null;
-        if (wagon != null && toTrain.canAttach(wagon)) {
-            wagon.detachFromPrevious();
-            toTrain.attachToRear(wagon);
+        //Attaching the wagon to the rear of toTrain takes it and its successors out of this train
+        int sequenceLength = numberOfWagons - position + 1;
+        if (toTrain.canAttach(wagon, sequenceLength)) {
+            YardListener listener = getListener();
+            if (listener != null) {
+                listener.trainSplit(this, position, toTrain);
+            }
+            YardListener toListener = toTrain.getListener();
+            if (toListener != null && toTrain.yard != yard) {
+                toListener.wagonsInserted(toTrain, toTrain.numberOfWagons + 1, wagon, sequenceLength);
+            }
+            removeSequence(wagon);
+            toTrain.appendSequence(wagon);
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Tries to couple all wagons of the given train to the rear of this train, leaving the given train without wagons
+     *
+     * @param fromTrain
+     * @return whether the coupling could be completed successfully
+     * @see #spliceAtPosition(int, Train, int, int)
+     */
+    public boolean coupleToRear(Train fromTrain) {
+        return coupleAtPosition(numberOfWagons + 1, fromTrain);
+    }
+
+    /**
+     * Tries to couple all wagons of the given train to the front of this train, leaving the given train without wagons
+     *
+     * @param fromTrain
+     * @return whether the coupling could be completed successfully
+     * @see #spliceAtPosition(int, Train, int, int)
+     */
+    public boolean coupleToFront(Train fromTrain) {
+        return coupleAtPosition(1, fromTrain);
+    }
+
+    /**
+     * Tries to couple all wagons of the given train at the given wagon position in this train,
+     * leaving the given train without wagons
+     * (nothing to couple if the given train has no wagons)
+     *
+     * @param position
+     * @param fromTrain
+     * @return whether the coupling could be completed successfully
+     * @see #spliceAtPosition(int, Train, int, int)
+     */
+    public boolean coupleAtPosition(int position, Train fromTrain) {
+        if (!fromTrain.hasWagons()) {
+            return position >= 1 && position <= numberOfWagons + 1 || reject(Rejection.INVALID_POSITION);
+        }
+        return spliceAtPosition(position, fromTrain, 1, fromTrain.numberOfWagons);
+    }
+
+    /**
+     * Tries to move the wagons from fromPosition up to and including toPosition of the given train
+     * to the given wagon position in this train, in their order
+     * The engine capacity and the type of the trains are checked from the cached counts of both trains.
+     * Moving k wagons takes O(k) to update the wagons and the cached totals, plus the walks to the positions
+     * (O(log n) with a position index); when fromTrain is reversed it is relinked first, which takes O(n).
+     * Only wagons that come from outside the yard of this train are checked for their ids.
+     * No change is made if the splice cannot be made
+     * (when a position is not valid, the trains are the same or not compatible,
+     * a wagon id is already used or the engine has insufficient capacity)
+     *
+     * @param position
+     * @param fromTrain
+     * @param fromPosition the position of the first wagon to move in fromTrain
+     * @param toPosition the position of the last wagon to move in fromTrain
+     * @return whether the splice could be completed successfully
+     */
+    public boolean spliceAtPosition(int position, Train fromTrain, int fromPosition, int toPosition) {
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            return splice(position, fromTrain, fromPosition, toPosition);
+        }
+        long start = System.nanoTime();
+        return metrics.record(TrainMetrics.Operation.SPLICE, start, splice(position, fromTrain, fromPosition, toPosition));
+    }
+
+    private boolean splice(int position, Train fromTrain, int fromPosition, int toPosition) {
+        if (position < 1 || position > numberOfWagons + 1 || fromTrain == this
+                || fromPosition < 1 || fromPosition > toPosition || toPosition > fromTrain.numberOfWagons) {
+            return reject(Rejection.INVALID_POSITION);
+        }
+        int sequenceLength = toPosition - fromPosition + 1;
+        if (numberOfWagons + sequenceLength > engine.getMaxWagons()) {
+            return reject(Rejection.CAPACITY);
+        }
+        if (hasWagons() && isPassengerTrain() != fromTrain.isPassengerTrain()) {
+            return reject(Rejection.TYPE_MISMATCH);
+        }
+
+        //Find both ends of the range, with the links of fromTrain running from front to rear
+        fromTrain.normalize();
+        Wagon first = fromPosition == 1 ? fromTrain.firstWagon : fromTrain.linkedWagonAt(fromPosition);
+        Wagon last = toPosition == fromTrain.numberOfWagons ? fromTrain.lastWagon : fromTrain.linkedWagonAt(toPosition);
+
+        //The wagon ids within a yard are unique already
+        if ((yard == null || fromTrain.yard != yard) && containsAnyId(first, sequenceLength)) {
+            return reject(Rejection.DUPLICATE_ID);
+        }
+        //The load of a whole train is cached, only a part of a train has to be added up
+        if (fromTrain.isFreightTrain() && hasWeightLimit() && exceedsPullingWeight(sequenceLength == fromTrain.numberOfWagons
+                ? fromTrain.getTotalLoad() : walkLoad(first, sequenceLength))) {
+            return reject(Rejection.OVERWEIGHT);
+        }
+
+        YardListener fromListener = fromTrain.getListener();
+        if (fromListener != null) {
+            fromListener.wagonsSpliced(fromTrain, fromPosition, toPosition, this, position);
+        }
+        YardListener listener = getListener();
+        if (listener != null && fromTrain.yard != yard) {
+            listener.wagonsInserted(this, position, first, sequenceLength);
+        }
+        fromTrain.cutOut(first, last, fromPosition, sequenceLength);
+        insertSequence(position, first);
+        return true;
+    }
+
+    /**
+     * Takes the wagons from first up to and including last out of this train,
+     * reconnecting the wagons in front of and behind them
+     *
+     * @param first
+     * @param last
+     * @param position the position of first in this train
+     * @param length the number of wagons from first to last
+     */
+    private void cutOut(Wagon first, Wagon last, int position, int length) {
+        modificationCount++;
+        if (positionIndex != null) {
+            positionIndex.removeRange(position, length);
+        }
+        for (Wagon w = first; ; w = w.getNextWagon()) {
+            w.setTrain(null);
+            wagonsById.remove(w.getId());
+            if (yard != null) {
+                yard.unregister(w);
+            }
+            addToTotals(w, -1);
+            if (w == last) {
+                break;
+            }
+        }
+
+        Wagon previous = first.getPreviousWagon();
+        Wagon next = last.getNextWagon();
+        first.detachFromPrevious();
+        last.detachTail();
+        if (previous == null) {
+            firstWagon = next;
+        } else if (next != null) {
+            next.attachTo(previous);
+        }
+        if (next == null) {
+            lastWagon = previous;
+        }
+    }
+
+    /**
+     * Registers all wagons of the given sequence as part of this train
+     * and adds them to the cached totals.
+     * The caller is responsible for linking the sequence into the train.
+     *
+     * @param sequence
+     * @return the last wagon of the sequence
+     */
+    private Wagon adopt(Wagon sequence) {
+        modificationCount++;
+        Wagon current = sequence;
+        while (true) {
+            current.setTrain(this);
+            wagonsById.put(current.getId(), current);
+            if (yard != null) {
+                yard.register(current);
+            }
+            addToTotals(current, 1);
+            if (!current.hasNextWagon()) {
+                return current;
+            }
+            current = current.getNextWagon();
+        }
+    }
+
+    /**
+     * Adds the sequence that was just adopted into this train to the position index (if any)
+     *
+     * @param position the position the first wagon of the sequence gets
+     * @param sequence
+     */
+    private void indexInsert(int position, Wagon sequence) {
+        if (positionIndex != null) {
+            int sequenceLength = numberOfWagons - positionIndex.size();
+            positionIndex.insert(position, sequence, sequenceLength);
+        }
+    }
+
+    /**
+     * Adds (direction 1) or subtracts (direction -1) a single wagon to the cached totals of this train
+     *
+     * @param wagon
+     * @param direction
+     */
+    private void addToTotals(Wagon wagon, int direction) {
+        numberOfWagons += direction;
+        if (wagon instanceof PassengerWagon) {
+            totalNumberOfSeats += direction * ((PassengerWagon) wagon).getNumberOfSeats();
+            reservedSeats.add(direction * ((PassengerWagon) wagon).getNumberOfReservedSeats());
+        } else if (wagon instanceof FreightWagon) {
+            totalMaxWeight += direction * ((FreightWagon) wagon).getMaxWeight();
+            totalLoad.add(direction * ((FreightWagon) wagon).getLoad());
+        }
+    }
+
+    /**
+     * Disconnects the given sequence from its predecessor (if any),
+     * taking it and its successors out of the train it is part of.
+     * The yard of that train is told when the wagons leave for a train outside of it.
+     *
+     * @param sequence
+     */
+    private void release(Wagon sequence) {
+        Train owner = sequence.getTrain();
+        if (owner != null) {
+            YardListener ownerListener = owner.getListener();
+            if (ownerListener != null && owner.yard != yard) {
+                ownerListener.trainSplit(owner, owner.findPositionOfWagon(sequence), null);
+            }
+            owner.removeSequence(sequence);
+        } else {
+            sequence.detachFromPrevious();
+        }
+    }
+
+    /**
+     * Takes the given wagon of this train and all its successors out of this train
+     *
+     * @param sequence
+     */
+    private void removeSequence(Wagon sequence) {
+        modificationCount++;
+        if (positionIndex != null) {
+            positionIndex.removeFrom(positionIndex.positionOf(sequence));
+        }
+
+        Wagon newLastWagon = sequence.getPreviousWagon();
+        for (Wagon w = sequence; w != null; w = w.getNextWagon()) {
+            w.setTrain(null);
+            wagonsById.remove(w.getId());
+            if (yard != null) {
+                yard.unregister(w);
+            }
+            addToTotals(w, -1);
+        }
+
+        sequence.detachFromPrevious();
+        if (sequence == firstWagon) {
+            firstWagon = null;
+        }
+        lastWagon = newLastWagon;
+    }
+
+    /**
+     * Takes one wagon out of this train, reconnecting its predecessor and successor
+     *
+     * @param wagon
+     */
+    private void removeWagon(Wagon wagon) {
+        modificationCount++;
+        if (positionIndex != null) {
+            positionIndex.remove(wagon);
+        }
+        if (wagon == firstWagon) {
+            firstWagon = wagon.getNextWagon();
+        }
+        if (wagon == lastWagon) {
+            lastWagon = wagon.getPreviousWagon();
+        }
+        wagon.removeFromSequence();
+        wagon.setTrain(null);
+        wagonsById.remove(wagon.getId());
+        if (yard != null) {
+            yard.unregister(wagon);
+        }
+        addToTotals(wagon, -1);
+    }
+
     /**
      * Reverses the sequence of wagons in this train (if any)
      * i.e. the last wagon becomes the first wagon
      * the previous wagon of the last wagon becomes the second wagon
      * etc.
      * (No change if the train has no wagons or only one wagon)
+     * Takes O(1): only the direction of the train flips. The wagons are relinked
+     * once their links are needed, by getFirstWagon, getLastWagonAttached or splitAtPosition.
      */
     public void reverse() {
-        // TODO
+        TrainMetrics metrics = Train.metrics;
+        if (metrics == null) {
+            reverseWagons();
+            return;
+        }
+        long start = System.nanoTime();
+        reverseWagons();
+        metrics.record(TrainMetrics.Operation.REVERSE, start, true);
+    }
+
+    private void reverseWagons() {
+        if (numberOfWagons > 1) {
+            YardListener listener = getListener();
+            if (listener != null) {
+                listener.trainReversed(this);
+            }
+            //Only the direction flips, the wagons are relinked when their links are needed
+            modificationCount++;
+            reversed = !reversed;
+        }
     }
 
+    /**
+     * Relinks the wagons of a reversed train, so the links run from the front to the rear again
+     * The former last wagon becomes the first wagon and vice versa, the totals stay the same
+     */
+    private void normalize() {
+        if (reversed) {
+            reversed = false;
+            if (numberOfWagons > 1) {
+                modificationCount++;
+                lastWagon = firstWagon;
+                firstWagon = firstWagon.reverseSequence();
+                if (positionIndex != null) {
+                    positionIndex = new PositionIndex(firstWagon);
+                }
+            }
+        }
+    }
+
+    /**
+     * Relinks the train the given sequence is part of (if any and if reversed),
+     * so the sequence consists of the wagon and the wagons behind it in that train
+     *
+     * @param sequence (can be null)
+     */
+    private static void normalizeOwner(Wagon sequence) {
+        if (sequence != null && sequence.getTrain() != null) {
+            sequence.getTrain().normalize();
+        }
+    }
+
+    /**
+     * The iterator is fail-fast: once the train has been changed,
+     * next() throws a ConcurrentModificationException instead of following links
+     * that may lead into another train.
+     */
     @Override
     public Iterator<Wagon> iterator() {
         return new WagonIterator();
     }
 
+    /**
+     * Iterates over the wagons as they were when the iterator was created,
+     * regardless of later changes to the train.
+     * The snapshot is shared by all snapshot iterators until the train changes,
+     * so repeated iterations of an unchanged train copy the wagons only once.
+     *
+     * @return an iterator over a snapshot of the wagons, from front to rear
+     */
+    public Iterator<Wagon> snapshotIterator() {
+        if (snapshot == null || snapshotModificationCount != modificationCount) {
+            Wagon[] wagons = new Wagon[numberOfWagons];
+            int i = 0;
+            for (Wagon w : this) {
+                wagons[i++] = w;
+            }
+            snapshot = wagons;
+            snapshotModificationCount = modificationCount;
+        }
+        return Collections.unmodifiableList(Arrays.asList(snapshot)).iterator();
+    }
+
+    /**
+     * @return a spliterator over the wagons from front to rear,
+     * which knows its size and can be split for parallel streams
+     */
+    @Override
+    public Spliterator<Wagon> spliterator() {
+        return new WagonSpliterator(reversed ? lastWagon : firstWagon, 1, numberOfWagons);
+    }
+
+    /**
+     * @return a stream of the wagons from front to rear
+     */
+    public Stream<Wagon> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Spliterator over a run of consecutive wagons of the train.
+     * Splitting hands out the front half of the run; its end is found with the position index
+     * if the train has one, otherwise by walking half the run.
+     */
+    public class WagonSpliterator implements Spliterator<Wagon> {
+        private static final int MIN_SPLIT_SIZE = 256;
+
+        private Wagon currentWagon;
+        private int currentPosition;
+        private int remaining;
+        private int expectedModificationCount = modificationCount;
+        private boolean backwards = reversed;
+
+        private WagonSpliterator(Wagon currentWagon, int currentPosition, int remaining) {
+            this.currentWagon = currentWagon;
+            this.currentPosition = currentPosition;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Wagon> action) {
+            if (remaining == 0) {
+                return false;
+            }
+            checkForModification();
+            Wagon wagon = currentWagon;
+            currentWagon = following(currentWagon);
+            currentPosition++;
+            remaining--;
+            action.accept(wagon);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Wagon> action) {
+            checkForModification();
+            Wagon wagon = currentWagon;
+            for (int i = remaining; i > 0; i--) {
+                Wagon next = following(wagon);
+                action.accept(wagon);
+                wagon = next;
+            }
+            currentPosition += remaining;
+            currentWagon = wagon;
+            remaining = 0;
+            checkForModification();
+        }
+
+        private void checkForModification() {
+            if (modificationCount != expectedModificationCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        private Wagon following(Wagon wagon) {
+            return backwards ? wagon.getPreviousWagon() : wagon.getNextWagon();
+        }
+
+        @Override
+        public Spliterator<Wagon> trySplit() {
+            if (remaining < MIN_SPLIT_SIZE) {
+                return null;
+            }
+            checkForModification();
+
+            int half = remaining / 2;
+            Wagon middle;
+            if (positionIndex != null) {
+                middle = wagonAtPosition(currentPosition + half);
+            } else {
+                middle = currentWagon;
+                for (int i = 0; i < half; i++) {
+                    middle = following(middle);
+                }
+            }
+
+            WagonSpliterator front = new WagonSpliterator(currentWagon, currentPosition, half);
+            front.expectedModificationCount = expectedModificationCount;
+            currentWagon = middle;
+            currentPosition += half;
+            remaining -= half;
+            return front;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | ORDERED | NONNULL;
+        }
+    }
+
     public class WagonIterator implements Iterator<Wagon> {
 
-        private Wagon currentWagon = Train.this.firstWagon;
+        private boolean backwards = reversed;
+        private Wagon currentWagon = backwards ? lastWagon : firstWagon;
+        private int expectedModificationCount = modificationCount;
 
         @Override
         public boolean hasNext() {
@@ -373,20 +1595,83 @@ public class Train implements Iterable<Wagon> {
 
         @Override
         public Wagon next() {
+            if (modificationCount != expectedModificationCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (currentWagon == null) {
+                throw new NoSuchElementException();
+            }
             Wagon returnWagon = currentWagon;
-            currentWagon = currentWagon.getNextWagon();
+            currentWagon = backwards ? currentWagon.getPreviousWagon() : currentWagon.getNextWagon();
             return returnWagon;
         }
     }
 
     @Override
     public String toString() {
-        String wagons = "";
-        //Adds all the wagon toString to each other
+        StringBuilder builder = new StringBuilder(64 + 12 * numberOfWagons);
+        appendTo(builder, Integer.MAX_VALUE);
+        return builder.toString();
+    }
+
+    /**
+     * Appends the same text as toString() to the given builder, in a single pass over the wagons
+     *
+     * @param builder
+     * @param maxWagons the number of wagons to show, the remaining wagons are summarized by their count
+     */
+    public void appendTo(StringBuilder builder, int maxWagons) {
+        try {
+            render(builder, null, maxWagons);
+        } catch (IOException e) {
+            // only writing to an output can fail, and there is none here
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the same text as toString() to the given output, in a single pass over the wagons.
+     * Text is collected in one buffer that is handed to the output every few kilobytes,
+     * so no strings are created per wagon.
+     *
+     * @param out
+     * @param maxWagons the number of wagons to show, the remaining wagons are summarized by their count
+     * @throws IOException when writing to the output fails
+     */
+    public void appendTo(Appendable out, int maxWagons) throws IOException {
+        if (out instanceof StringBuilder) {
+            appendTo((StringBuilder) out, maxWagons);
+            return;
+        }
+
+        StringBuilder buffer = new StringBuilder(RENDER_BUFFER_SIZE + 64);
+        render(buffer, out, maxWagons);
+        out.append(buffer);
+    }
+
+    /**
+     * Renders the train into the buffer, handing full buffers to out (if any)
+     */
+    private void render(StringBuilder buffer, Appendable out, int maxWagons) throws IOException {
+        buffer.append(engine);
+        int shown = 0;
         for (Wagon w : this) {
-            wagons += w.toString();
+            if (shown == maxWagons) {
+                break;
+            }
+            w.appendTo(buffer);
+            shown++;
+
+            if (out != null && buffer.length() >= RENDER_BUFFER_SIZE) {
+                out.append(buffer);
+                buffer.setLength(0);
+            }
+        }
+        if (shown < numberOfWagons) {
+            buffer.append("...(+").append(numberOfWagons - shown).append(" wagons)");
         }
 
-        return engine.toString() + wagons + " with " + getNumberOfWagons() + " wagons from " + origin + " to " + destination;
+        buffer.append(" with ").append(numberOfWagons).append(" wagons from ")
+                .append(origin).append(" to ").append(destination);
     }
 }
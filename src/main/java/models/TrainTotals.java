@@ -0,0 +1,80 @@
+package models;
+
+import java.util.Objects;
+
+/**
+ * Totals over a group of trains: the number of trains, wagons, seats and maximum weight.
+ * Totals of separate groups can be combined in any order, which makes them suited for parallel aggregation.
+ */
+public class TrainTotals {
+    public static final TrainTotals NONE = new TrainTotals(0, 0, 0, 0);
+
+    private final int numberOfTrains;
+    private final long numberOfWagons;
+    private final long totalNumberOfSeats;
+    private final long totalMaxWeight;
+
+    public TrainTotals(int numberOfTrains, long numberOfWagons, long totalNumberOfSeats, long totalMaxWeight) {
+        this.numberOfTrains = numberOfTrains;
+        this.numberOfWagons = numberOfWagons;
+        this.totalNumberOfSeats = totalNumberOfSeats;
+        this.totalMaxWeight = totalMaxWeight;
+    }
+
+    /**
+     * @param train
+     * @return the totals of a single train, taken from its cached totals
+     */
+    public static TrainTotals of(Train train) {
+        return new TrainTotals(1, train.getNumberOfWagons(), train.getTotalNumberOfSeats(), train.getTotalMaxWeight());
+    }
+
+    /**
+     * @param other
+     * @return the totals of the trains of both groups
+     */
+    public TrainTotals combine(TrainTotals other) {
+        return new TrainTotals(numberOfTrains + other.numberOfTrains, numberOfWagons + other.numberOfWagons,
+                totalNumberOfSeats + other.totalNumberOfSeats, totalMaxWeight + other.totalMaxWeight);
+    }
+
+    public int getNumberOfTrains() {
+        return numberOfTrains;
+    }
+
+    public long getNumberOfWagons() {
+        return numberOfWagons;
+    }
+
+    public long getTotalNumberOfSeats() {
+        return totalNumberOfSeats;
+    }
+
+    public long getTotalMaxWeight() {
+        return totalMaxWeight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TrainTotals)) {
+            return false;
+        }
+        TrainTotals other = (TrainTotals) o;
+        return numberOfTrains == other.numberOfTrains && numberOfWagons == other.numberOfWagons
+                && totalNumberOfSeats == other.totalNumberOfSeats && totalMaxWeight == other.totalMaxWeight;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(numberOfTrains, numberOfWagons, totalNumberOfSeats, totalMaxWeight);
+    }
+
+    @Override
+    public String toString() {
+        return numberOfTrains + " trains with " + numberOfWagons + " wagons, "
+                + totalNumberOfSeats + " seats and " + totalMaxWeight + " max weight";
+    }
+}
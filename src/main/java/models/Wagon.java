@@ -8,6 +8,8 @@ abstract public class Wagon {
     private Wagon previousWagon;    // another wagon that is prepended at the front of this wagon
     // a.k.a. the predecessor of this wagon in a sequence
     // set to null if no predecessor is connected
+    private Train train;            // the train this wagon is currently part of
+    // set to null if the wagon is not attached to any train
 
 
     // representation invariant propositions:
@@ -30,6 +32,24 @@ abstract public class Wagon {
         return previousWagon;
     }
 
+    /**
+     * @return the train this wagon is currently part of
+     * (null if the wagon is not attached to any train)
+     */
+    public Train getTrain() {
+        return train;
+    }
+
+    /**
+     * Registers the train this wagon is part of.
+     * Only to be used by Train, which keeps its cached totals in line with its wagons.
+     *
+     * @param train
+     */
+    void setTrain(Train train) {
+        this.train = train;
+    }
+
     /**
      * @return whether this wagon has a wagon appended at the tail
      */
@@ -75,17 +95,14 @@ abstract public class Wagon {
      * return 0 if no wagons have been appended.
      */
     public int getSequenceLength() {
-        if (hasNextWagon()) {
-            return count(this, 0);
-        } else {
-            return 1;
-        }
+        return count(this, 0);
     }
 
     /**
-     * Method to recursively keep count of the amount of wagons
-     * in a sequence. Adds 1 to the count to account for the current wagon
-     * in the sequence.
+     * Method to keep count of the amount of wagons in a sequence,
+     * walking from the given wagon until the final wagon of its sequence.
+     * Adds 1 to the count for every wagon passed, including the current wagon.
+     * (iterative, so very long sequences do not run out of stack)
      *
      * @param current
      * @param count
@@ -93,11 +110,11 @@ abstract public class Wagon {
      *
      */
     public int count(Wagon current, int count) {
-        if (current.hasNextWagon()) {
-            return count(current.getNextWagon(), count + 1);
-        } else {
-            return count + 1;
+        while (current != null) {
+            count++;
+            current = current.nextWagon;
         }
+        return count;
     }
 
 
@@ -123,25 +140,33 @@ abstract public class Wagon {
     /**
      * detaches this wagon from its previous wagons.
      * no action if this wagon has no previous wagon attached.
+     *
+     * @return whether this wagon was detached (false if it had no previous wagon)
      */
-    public void detachFromPrevious() {
+    public boolean detachFromPrevious() {
         // Detach this wagon from its predecessors (sustaining the invariant propositions).
         if (this.hasPreviousWagon()) {
             this.previousWagon.nextWagon = null;
             this.previousWagon = null;
+            return true;
         }
+        return false;
     }
 
     /**
      * detaches this wagon from its tail wagons.
      * no action if this wagon has no succeeding next wagon attached.
+     *
+     * @return whether the tail was detached (false if this wagon had no next wagon)
      */
-    public void detachTail() {
+    public boolean detachTail() {
         // Detach this wagon from its successors (sustaining the invariant propositions).
         if (this.hasNextWagon()) {
             this.nextWagon.previousWagon = null;
             this.nextWagon = null;
+            return true;
         }
+        return false;
     }
 
     /**
@@ -163,19 +188,24 @@ abstract public class Wagon {
     /**
      * Removes this wagon from the sequence that it is part of, if any.
      * Reconnect the subsequence of its predecessors with the subsequence of its successors, if any.
+     * no action if this wagon is not connected to any other wagon.
+     *
+     * @return whether this wagon was removed from a sequence (false if it was on its own)
      */
-    public void removeFromSequence() {
+    public boolean removeFromSequence() {
         if (hasNextWagon() && hasPreviousWagon()) {
             this.previousWagon.nextWagon = this.nextWagon;
             this.nextWagon.previousWagon = this.previousWagon;
             this.nextWagon = null;
             this.previousWagon = null;
+            return true;
         } else if (!hasPreviousWagon() && hasNextWagon()) {
-            detachTail();
+            return detachTail();
         } else if (!hasNextWagon() && hasPreviousWagon()) {
-            detachFromPrevious();
+            return detachFromPrevious();
         } else {
-            System.out.println("Nothing in sequence so no need to remove anything");
+            //Nothing in sequence so no need to remove anything
+            return false;
         }
     }
 
@@ -192,30 +222,38 @@ abstract public class Wagon {
             return null;
         }
 
+        // Reverse the sequence on its own and put it back behind the predecessor afterwards.
+        Wagon predecessor = this.previousWagon;
+        detachFromPrevious();
         Wagon newHeadWagon = reverse(this);
+        if (predecessor != null) {
+            newHeadWagon.attachTo(predecessor);
+        }
 
         return newHeadWagon;
     }
 
     /**
-     * recursively reverses the sequence of a given wagon until the final wagon in the sequence.
+     * reverses the sequence of a given wagon until the final wagon in the sequence,
+     * by swapping the next and previous links of every wagon on the way.
+     * (iterative, so very long sequences do not run out of stack)
      * @param currentWagon
-     * @return the current wagon if there are no more previous wagons (since it's the first in the list).
+     * @return the former final wagon, which is the first wagon of the reversed sequence.
      */
     public Wagon reverse(Wagon currentWagon){
-        Wagon storedNextWagon = currentWagon.nextWagon;
-        currentWagon.nextWagon = currentWagon.previousWagon;
-        currentWagon.previousWagon = storedNextWagon;
-
-        // If there are no more previous wagons
-        // the list has been reversed.
-        if(currentWagon.previousWagon == null){
-            return currentWagon;
-        }
+        while (true) {
+            Wagon storedNextWagon = currentWagon.nextWagon;
+            currentWagon.nextWagon = currentWagon.previousWagon;
+            currentWagon.previousWagon = storedNextWagon;
+
+            // If there are no more wagons to come
+            // the list has been reversed.
+            if (storedNextWagon == null) {
+                return currentWagon;
+            }
 
-        // Calls itself again with the previousWagon,
-        // which is actually the stored next wagon.
-        return reverse(currentWagon.previousWagon);
+            currentWagon = storedNextWagon;
+        }
     }
 
     // TODO
@@ -224,4 +262,13 @@ abstract public class Wagon {
     public String toString() {
         return "[Wagon-" + id + "]";
     }
+
+    /**
+     * Appends the same text as toString() to the given builder, without creating a string
+     *
+     * @param builder
+     */
+    public void appendTo(StringBuilder builder) {
+        builder.append("[Wagon-").append(id).append(']');
+    }
 }
@@ -0,0 +1,269 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Registry of the locomotives and trains of a fleet.
+ * Keeps one index from wagon id to wagon over all trains of the yard,
+ * updated by the trains on every attach, insert, move and split,
+ * so the train of any wagon is found in constant time.
+ * A wagon id can be used by only one wagon in the trains of a yard.
+ */
+public class Yard {
+    private List<Locomotive> locomotives = new ArrayList<>();
+    // Locomotive numbers need not be unique, so locomotives are told apart by identity
+    private Set<Locomotive> locomotiveSet = Collections.newSetFromMap(new IdentityHashMap<>());
+    private List<Train> trains = new ArrayList<>();
+    private IdIndex<Wagon> wagonsById;
+    private YardListener listener;
+
+    /* Representation invariants:
+        every train t in trains has t.yard == this, t.engine is in locomotives
+            and trains.get(t.yardIndex) == t
+        wagonsById holds exactly the wagons of all trains in trains
+        locomotiveSet holds exactly the locomotives in locomotives
+     */
+
+    public Yard() {
+        wagonsById = new IdIndex<>();
+    }
+
+    /**
+     * Creates a yard that is sized up front for the given number of wagons
+     * (saves growing the wagon index step by step while a large fleet is loaded)
+     *
+     * @param expectedNumberOfWagons
+     */
+    public Yard(int expectedNumberOfWagons) {
+        wagonsById = new IdIndex<>(expectedNumberOfWagons);
+    }
+
+    /**
+     * Adds a locomotive to the yard
+     * no action if the locomotive is already part of the yard (checked in constant time)
+     *
+     * @param locomotive
+     */
+    public void addLocomotive(Locomotive locomotive) {
+        if (!locomotiveSet.contains(locomotive)) {
+            if (listener != null) {
+                listener.locomotiveAdded(this, locomotive);
+            }
+            locomotiveSet.add(locomotive);
+            locomotives.add(locomotive);
+        }
+    }
+
+    /**
+     * Adds a train, with its locomotive and wagons, to the yard
+     * No change is made if the train is part of a yard already,
+     * or when one of its wagon ids is already used in this yard.
+     *
+     * @param train
+     * @return whether the train could be added
+     */
+    public boolean addTrain(Train train) {
+        if (train.getYard() != null) {
+            return false;
+        }
+        for (Wagon w : train) {
+            if (wagonsById.contains(w.getId())) {
+                return false;
+            }
+        }
+
+        addLocomotive(train.getEngine());
+        if (listener != null) {
+            listener.trainAdded(this, train);
+        }
+        for (Wagon w : train) {
+            wagonsById.put(w.getId(), w);
+        }
+        train.setYard(this, trains.size());
+        trains.add(train);
+        return true;
+    }
+
+    /**
+     * Creates a train without wagons in this yard
+     *
+     * @param engine
+     * @param origin
+     * @param destination
+     * @return the new train
+     */
+    public Train createTrain(Locomotive engine, String origin, String destination) {
+        Train train = new Train(engine, origin, destination);
+        addTrain(train);
+        return train;
+    }
+
+    /**
+     * Takes a train, with its wagons, out of the yard
+     * The locomotive stays in the yard.
+     *
+     * @param train
+     * @return whether the train was part of this yard
+     */
+    public boolean removeTrain(Train train) {
+        if (train.getYard() != this) {
+            return false;
+        }
+        if (listener != null) {
+            listener.trainRemoved(this, train);
+        }
+
+        for (Wagon w : train) {
+            wagonsById.remove(w.getId());
+        }
+        //The trains behind the removed train move up one place
+        int index = indexOfTrain(train);
+        trains.remove(index);
+        for (int i = index; i < trains.size(); i++) {
+            trains.get(i).setYard(this, i);
+        }
+        train.setYard(null, -1);
+        return true;
+    }
+
+    public List<Locomotive> getLocomotives() {
+        return Collections.unmodifiableList(locomotives);
+    }
+
+    public List<Train> getTrains() {
+        return Collections.unmodifiableList(trains);
+    }
+
+    /**
+     * @param train
+     * @return the index of the given train in getTrains()
+     * (-1 if the train is not part of this yard)
+     */
+    public int indexOfTrain(Train train) {
+        return train.getYard() == this ? train.getYardIndex() : -1;
+    }
+
+    /**
+     * @return the listener that is told about every change in this yard (null if none)
+     */
+    public YardListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sets the listener that is told about every change to the locomotives, trains and wagons of this yard
+     *
+     * @param listener (null to stop listening)
+     */
+    public void setListener(YardListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of wagons in all trains of the yard
+     */
+    public int getNumberOfWagons() {
+        return wagonsById.size();
+    }
+
+    /**
+     * Finds the wagon with a given wagonId in any train of the yard
+     *
+     * @param wagonId
+     * @return the wagon found
+     * (return null if no wagon was found with the given wagonId)
+     */
+    public Wagon findWagonById(int wagonId) {
+        return wagonsById.get(wagonId);
+    }
+
+    /**
+     * Finds the train that holds the wagon with a given wagonId
+     *
+     * @param wagonId
+     * @return the train found
+     * (return null if no wagon was found with the given wagonId)
+     */
+    public Train findTrainOfWagon(int wagonId) {
+        Wagon wagon = wagonsById.get(wagonId);
+        return wagon == null ? null : wagon.getTrain();
+    }
+
+    /**
+     * Finds the position of the wagon with a given wagonId within its train
+     * (takes O(log n) for trains with a position index, a walk over the train otherwise)
+     *
+     * @param wagonId
+     * @return the position found (starting at 1 for the first wagon of the train)
+     * (return 0 if no wagon was found with the given wagonId)
+     */
+    public int findPositionOfWagon(int wagonId) {
+        Wagon wagon = wagonsById.get(wagonId);
+        return wagon == null ? 0 : wagon.getTrain().findPositionOfWagon(wagon);
+    }
+
+    /**
+     * Sums the wagons, seats and maximum weight of all trains in the yard
+     *
+     * @param parallel whether to spread the trains over all cores
+     * @return the totals (the same whether computed in parallel or not)
+     */
+    public TrainTotals getTotals(boolean parallel) {
+        return trainStream(parallel).map(TrainTotals::of).reduce(TrainTotals.NONE, TrainTotals::combine);
+    }
+
+    /**
+     * Sums the wagons, seats and maximum weight of the trains in the yard per route
+     *
+     * @param parallel whether to spread the trains over all cores
+     * @return the totals by route, keyed and sorted by "origin to destination"
+     * (the same whether computed in parallel or not)
+     */
+    public Map<String, TrainTotals> getTotalsByRoute(boolean parallel) {
+        return trainStream(parallel).collect(Collectors.groupingBy(
+                train -> train.getOrigin() + " to " + train.getDestination(),
+                TreeMap::new,
+                Collectors.reducing(TrainTotals.NONE, TrainTotals::of, TrainTotals::combine)));
+    }
+
+    /**
+     * @param parallel
+     * @return a stream of the trains, split over all cores if parallel
+     */
+    private Stream<Train> trainStream(boolean parallel) {
+        return parallel ? trains.parallelStream() : trains.stream();
+    }
+
+    /**
+     * @param wagon
+     * @return whether the id of the given wagon is used by another wagon in this yard
+     */
+    boolean isUsedByOtherWagon(Wagon wagon) {
+        Wagon registered = wagonsById.get(wagon.getId());
+        return registered != null && registered != wagon;
+    }
+
+    /**
+     * Records that the given wagon has been adopted by one of the trains of this yard
+     */
+    void register(Wagon wagon) {
+        wagonsById.put(wagon.getId(), wagon);
+    }
+
+    /**
+     * Records that the given wagon has left one of the trains of this yard
+     */
+    void unregister(Wagon wagon) {
+        if (wagonsById.get(wagon.getId()) == wagon) {
+            wagonsById.remove(wagon.getId());
+        }
+    }
+}
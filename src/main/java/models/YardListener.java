@@ -0,0 +1,80 @@
+package models;
+
+/**
+ * Is told about every change to the locomotives, trains and wagons of a yard (see Yard.setListener).
+ * Every change is reported after it has been validated and just before it is applied,
+ * so the trains still show the state the change starts from.
+ * Trains are identified by their index in Yard.getTrains().
+ */
+public interface YardListener {
+
+    /**
+     * A locomotive is about to be added to the yard
+     */
+    void locomotiveAdded(Yard yard, Locomotive locomotive);
+
+    /**
+     * A train, with its wagons, is about to be added to the end of the trains of the yard
+     * (its locomotive has already been added)
+     */
+    void trainAdded(Yard yard, Train train);
+
+    /**
+     * A train, with its wagons, is about to be taken out of the yard
+     */
+    void trainRemoved(Yard yard, Train train);
+
+    /**
+     * The current wagons of the train are about to be replaced by the given sequence
+     *
+     * @param train
+     * @param sequence the new wagons, a sequence up to its last wagon (can be null)
+     */
+    void wagonsReplaced(Train train, Wagon sequence);
+
+    /**
+     * The given wagons are about to be inserted into the train,
+     * taking them out of the train they are part of (if any)
+     *
+     * @param train
+     * @param position the position the first wagon of the sequence will get (from 1 up to n+1)
+     * @param sequence
+     * @param sequenceLength the number of wagons of the sequence that will be inserted
+     */
+    void wagonsInserted(Train train, int position, Wagon sequence, int sequenceLength);
+
+    /**
+     * The given wagon is about to be moved from its train to the rear of toTrain
+     *
+     * @param fromTrain
+     * @param wagon
+     * @param toTrain (not necessarily part of the same yard)
+     */
+    void wagonMoved(Train fromTrain, Wagon wagon, Train toTrain);
+
+    /**
+     * The wagons from the given position are about to be moved to the rear of toTrain
+     *
+     * @param fromTrain
+     * @param position
+     * @param toTrain (not necessarily part of the same yard, null if the wagons leave all trains)
+     */
+    void trainSplit(Train fromTrain, int position, Train toTrain);
+
+    /**
+     * The wagons from fromPosition up to and including toPosition are about to be moved
+     * to the given position of toTrain
+     *
+     * @param fromTrain
+     * @param fromPosition
+     * @param toPosition
+     * @param toTrain (not necessarily part of the same yard)
+     * @param position the position the first of the wagons will get in toTrain
+     */
+    void wagonsSpliced(Train fromTrain, int fromPosition, int toPosition, Train toTrain, int position);
+
+    /**
+     * The order of the wagons of the train is about to be reversed
+     */
+    void trainReversed(Train train);
+}
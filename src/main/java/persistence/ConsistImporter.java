@@ -0,0 +1,440 @@
+package persistence;
+
+import models.FreightWagon;
+import models.Locomotive;
+import models.PassengerWagon;
+import models.Rejection;
+import models.Train;
+import models.Wagon;
+import models.Yard;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Imports consist lists into a yard, one wagon per line, in CSV or in JSON lines:
+ *
+ * <pre>
+ * locNumber,maxWagons,origin,destination,wagonId,type,capacity
+ * 24531,10,Amsterdam,Paris,8001,passenger,40
+ * {"locNumber":24531,"maxWagons":10,"origin":"Amsterdam","destination":"Paris","wagonId":8001,"type":"passenger","capacity":40}
+ * </pre>
+ *
+ * The capacity is the number of seats of a passenger wagon, or the maximum weight of a freight wagon.
+ * JSON strings may contain the escapes of JSON; a line with an invalid escape is malformed.
+ * All lines with the same locomotive, origin and destination make up one train;
+ * all lines with the same locomotive must agree on its maxWagons.
+ * The file is read line by line; the wagons of a train are collected in batches of at most BATCH_SIZE wagons
+ * and attached with one bulk attach per batch, so memory use does not grow with the size of the file.
+ * Lines that cannot be imported are reported to the RejectionListener and skipped.
+ */
+public class ConsistImporter {
+    public static final int BATCH_SIZE = 4096;
+
+    /**
+     * Why a line could not be imported:
+     * a problem of the line itself, or the reason its train would refuse the wagon
+     */
+    public enum ImportError {
+        /** the line does not hold a valid wagon */
+        MALFORMED(null),
+        /** an earlier line gave the locomotive another maxWagons */
+        LOCOMOTIVE_MISMATCH(null),
+        /** the locomotive of the train cannot pull another wagon */
+        CAPACITY(Rejection.CAPACITY),
+        /** the wagon is not of the type of the other wagons of the train */
+        TYPE_MISMATCH(Rejection.TYPE_MISMATCH),
+        /** the wagon id is already used in the yard */
+        DUPLICATE_ID(Rejection.DUPLICATE_ID);
+
+        private final Rejection rejection;
+
+        ImportError(Rejection rejection) {
+            this.rejection = rejection;
+        }
+
+        /**
+         * @return the reason the train refuses the wagon
+         * (null for a problem of the line itself)
+         */
+        public Rejection getRejection() {
+            return rejection;
+        }
+    }
+
+    /**
+     * Is told about every line that could not be imported
+     */
+    public interface RejectionListener {
+        void rejected(long lineNumber, String line, ImportError error);
+    }
+
+    private Yard yard;
+    private RejectionListener rejections;
+    private Map<Integer, Locomotive> locomotives = new HashMap<>();
+    private Map<String, Train> trains = new HashMap<>();
+
+    private Train train;
+    private List<Wagon> batch = new ArrayList<>();
+    private Set<Integer> batchIds = new HashSet<>();
+    private long importedWagons;
+
+    // the fields of the line being imported
+    private int locNumber;
+    private int maxWagons;
+    private String origin;
+    private String destination;
+    private int wagonId;
+    private byte type;
+    private int capacity;
+
+    /**
+     * @param yard the yard that receives the trains
+     * @param rejections is told about the lines that cannot be imported
+     */
+    public ConsistImporter(Yard yard, RejectionListener rejections) {
+        this.yard = yard;
+        this.rejections = rejections;
+    }
+
+    /**
+     * Imports the given file, as JSON lines if its name ends in .jsonl or .json, as CSV otherwise
+     *
+     * @param file
+     * @return the number of wagons imported
+     * @throws IOException when the file cannot be read
+     */
+    public long importFile(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        boolean json = name.endsWith(".jsonl") || name.endsWith(".json");
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return json ? importJsonLines(reader) : importCsv(reader);
+        }
+    }
+
+    /**
+     * Imports consist lines in CSV, skipping a header line
+     *
+     * @param reader
+     * @return the number of wagons imported
+     * @throws IOException when the reader fails
+     */
+    public long importCsv(Reader reader) throws IOException {
+        return importLines(reader, false);
+    }
+
+    /**
+     * Imports consist lines in JSON lines, one JSON object per line
+     *
+     * @param reader
+     * @return the number of wagons imported
+     * @throws IOException when the reader fails
+     */
+    public long importJsonLines(Reader reader) throws IOException {
+        return importLines(reader, true);
+    }
+
+    private long importLines(Reader reader, boolean json) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, 1 << 16);
+        long before = importedWagons;
+        long lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || !json && lineNumber == 1 && line.startsWith("locNumber")) {
+                continue;
+            }
+            boolean parsed = json ? parseJson(line) : parseCsv(line);
+            if (!parsed) {
+                rejections.rejected(lineNumber, line, ImportError.MALFORMED);
+                continue;
+            }
+            ImportError error = add();
+            if (error != null) {
+                rejections.rejected(lineNumber, line, error);
+            }
+        }
+        flush();
+        return importedWagons - before;
+    }
+
+    /**
+     * Adds the wagon of the current line to the batch of its train
+     *
+     * @return why the wagon cannot be added (null if it was added)
+     */
+    private ImportError add() {
+        Train lineTrain = trainOfLine();
+        if (lineTrain == null) {
+            return ImportError.LOCOMOTIVE_MISMATCH;
+        }
+        if (lineTrain != train) {
+            flush();
+            train = lineTrain;
+        }
+
+        if (yard.findWagonById(wagonId) != null || batchIds.contains(wagonId)) {
+            return ImportError.DUPLICATE_ID;
+        }
+        if (train.getNumberOfWagons() + batch.size() >= train.getEngine().getMaxWagons()) {
+            return ImportError.CAPACITY;
+        }
+        boolean passenger = type == YardFile.PASSENGER_WAGON;
+        if (train.hasWagons() && train.isPassengerTrain() != passenger
+                || !batch.isEmpty() && batch.get(0) instanceof PassengerWagon != passenger) {
+            return ImportError.TYPE_MISMATCH;
+        }
+
+        batch.add(passenger ? new PassengerWagon(wagonId, capacity) : new FreightWagon(wagonId, capacity));
+        batchIds.add(wagonId);
+        if (batch.size() == BATCH_SIZE) {
+            flush();
+        }
+        return null;
+    }
+
+    /**
+     * @return the train of the current line, created in the yard at its first line
+     * (null if the line does not agree with the maxWagons of the locomotive)
+     */
+    private Train trainOfLine() {
+        Locomotive current = train == null ? null : train.getEngine();
+        if (current != null && current.getLocNumber() == locNumber && current.getMaxWagons() == maxWagons
+                && train.getOrigin().equals(origin) && train.getDestination().equals(destination)) {
+            return train;
+        }
+        Locomotive engine = locomotives.computeIfAbsent(locNumber, number -> new Locomotive(number, maxWagons));
+        if (engine.getMaxWagons() != maxWagons) {
+            return null;
+        }
+        return trains.computeIfAbsent(locNumber + "," + origin + "," + destination,
+                key -> yard.createTrain(engine, origin, destination));
+    }
+
+    /**
+     * Attaches the collected batch of wagons to its train
+     */
+    private void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Every wagon of the batch has been checked against the train and the yard
+        if (!train.attachAllToRear(batch)) {
+            throw new IllegalStateException("Validated batch of " + batch.size() + " wagons rejected by " + train);
+        }
+        importedWagons += batch.size();
+        batch.clear();
+        batchIds.clear();
+    }
+
+    /**
+     * Reads the fields of a CSV line: locNumber,maxWagons,origin,destination,wagonId,type,capacity
+     * (fields may be surrounded by double quotes)
+     *
+     * @return whether the line holds a valid wagon
+     */
+    private boolean parseCsv(String line) {
+        String[] fields = new String[7];
+        int start = 0;
+        for (int f = 0; f < fields.length; f++) {
+            if (start > line.length()) {
+                return false;
+            }
+            int end;
+            if (start < line.length() && line.charAt(start) == '"') {
+                int close = line.indexOf('"', start + 1);
+                if (close < 0) {
+                    return false;
+                }
+                fields[f] = line.substring(start + 1, close);
+                end = line.indexOf(',', close);
+            } else {
+                end = line.indexOf(',', start);
+                fields[f] = line.substring(start, end < 0 ? line.length() : end).trim();
+            }
+            start = end < 0 ? line.length() + 1 : end + 1;
+        }
+        return start > line.length() && setFields(fields);
+    }
+
+    /**
+     * Reads the fields of a flat JSON object with the names of the CSV header
+     *
+     * @return whether the line holds a valid wagon
+     */
+    private boolean parseJson(String line) {
+        String[] fields = new String[7];
+        StringBuilder text = new StringBuilder();
+        int i = line.indexOf('{');
+        if (i < 0) {
+            return false;
+        }
+        while (true) {
+            int nameStart = line.indexOf('"', i + 1);
+            if (nameStart < 0) {
+                break;
+            }
+            text.setLength(0);
+            int nameEnd = readJsonString(line, nameStart, text);
+            int colon = nameEnd < 0 ? -1 : line.indexOf(':', nameEnd);
+            if (colon < 0) {
+                return false;
+            }
+            String name = text.toString();
+            int valueStart = colon + 1;
+            while (valueStart < line.length() && line.charAt(valueStart) == ' ') {
+                valueStart++;
+            }
+            int valueEnd;
+            String value;
+            if (valueStart < line.length() && line.charAt(valueStart) == '"') {
+                text.setLength(0);
+                valueEnd = readJsonString(line, valueStart, text);
+                if (valueEnd < 0) {
+                    return false;
+                }
+                value = text.toString();
+            } else {
+                valueEnd = valueStart;
+                while (valueEnd < line.length() && line.charAt(valueEnd) != ',' && line.charAt(valueEnd) != '}') {
+                    valueEnd++;
+                }
+                value = line.substring(valueStart, valueEnd).trim();
+            }
+            int field = fieldIndex(name);
+            if (field >= 0) {
+                fields[field] = value;
+            }
+            i = valueEnd;
+        }
+        return setFields(fields);
+    }
+
+    /**
+     * Reads the JSON string that starts at the given quote, resolving its escapes
+     *
+     * @param line
+     * @param quote the index of the opening quote
+     * @param text receives the characters of the string
+     * @return the index behind the closing quote
+     * (-1 if the string is not closed or has an invalid escape)
+     */
+    private static int readJsonString(String line, int quote, StringBuilder text) {
+        int i = quote + 1;
+        while (i < line.length()) {
+            char c = line.charAt(i++);
+            if (c == '"') {
+                return i;
+            }
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            if (i == line.length()) {
+                return -1;
+            }
+            char escaped = line.charAt(i++);
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    text.append(escaped);
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 > line.length()) {
+                        return -1;
+                    }
+                    int code = 0;
+                    for (int end = i + 4; i < end; i++) {
+                        int digit = Character.digit(line.charAt(i), 16);
+                        if (digit < 0) {
+                            return -1;
+                        }
+                        code = code * 16 + digit;
+                    }
+                    text.append((char) code);
+                    break;
+                default:
+                    return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int fieldIndex(String name) {
+        switch (name) {
+            case "locNumber":
+                return 0;
+            case "maxWagons":
+                return 1;
+            case "origin":
+                return 2;
+            case "destination":
+                return 3;
+            case "wagonId":
+                return 4;
+            case "type":
+                return 5;
+            case "capacity":
+                return 6;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Takes over the fields of a line, in the order of the CSV header
+     *
+     * @return whether all fields are present and valid
+     */
+    private boolean setFields(String[] fields) {
+        for (String field : fields) {
+            if (field == null || field.isEmpty()) {
+                return false;
+            }
+        }
+        if ("passenger".equalsIgnoreCase(fields[5])) {
+            type = YardFile.PASSENGER_WAGON;
+        } else if ("freight".equalsIgnoreCase(fields[5])) {
+            type = YardFile.FREIGHT_WAGON;
+        } else {
+            return false;
+        }
+        try {
+            locNumber = Integer.parseInt(fields[0]);
+            maxWagons = Integer.parseInt(fields[1]);
+            wagonId = Integer.parseInt(fields[4]);
+            capacity = Integer.parseInt(fields[6]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        origin = fields[2];
+        destination = fields[3];
+        return maxWagons >= 0 && capacity >= 0;
+    }
+}
@@ -0,0 +1,433 @@
+package persistence;
+
+import models.FreightWagon;
+import models.Locomotive;
+import models.PassengerWagon;
+import models.Train;
+import models.Wagon;
+import models.Yard;
+import models.YardListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes to a yard, for recovery after a crash.
+ * Set it as the listener of a yard and it records every change as a compact binary entry:
+ *
+ * <pre>
+ * header      int magic, long generation of the snapshot the entries follow
+ * entry       int length of the operation, int CRC32 of the operation, operation
+ * operation   byte code, then the operands of that code (see the constants below)
+ * sequence    int number of wagons, then per wagon: int id, byte type, int seats or max weight
+ *             (or for wagons that are already part of a train of the yard: int -1, int id of the first wagon)
+ * </pre>
+ *
+ * Entries are collected in a buffer and written in groups:
+ * the journal is forced to disk once per groupSize entries, or on commit().
+ * A crash loses at most the entries since the last commit.
+ * A failure to write the journal is thrown as UncheckedIOException by the change being recorded,
+ * which is then not applied; take a checkpoint before trusting the journal again.
+ * recover() rebuilds the yard from the last checkpoint snapshot and the journal written after it.
+ * Every checkpoint has a higher generation, stamped in the snapshot and in the journal header,
+ * so recover() never replays entries that the snapshot already contains.
+ */
+public class Journal implements YardListener, Closeable {
+    static final byte LOCOMOTIVE_ADDED = 1;      // int locNumber, int maxWagons
+    static final byte TRAIN_ADDED = 2;           // int locomotive index, string origin, string destination, sequence
+    static final byte TRAIN_REMOVED = 3;         // int train
+    static final byte WAGONS_REPLACED = 4;       // int train, sequence
+    static final byte WAGONS_INSERTED = 5;       // int train, int position, sequence
+    static final byte WAGON_MOVED = 6;           // int from train, int wagon id, int to train (-1 if outside the yard)
+    static final byte TRAIN_SPLIT = 7;           // int from train, int position, int to train (-1 if outside the yard)
+    static final byte TRAIN_REVERSED = 8;        // int train
+    static final byte WAGONS_SPLICED = 9;        // int from train, int from position, int to position,
+                                                 // int to train (-1 if outside the yard), int position
+    static final byte WEIGHT_LIMITED_LOCOMOTIVE_ADDED = 10; // int locNumber, int maxWagons, int maxPullingWeight
+
+    static final int MAGIC = 0x4A524E4C; // "JRNL"
+    static final int HEADER_SIZE = 4 + 8;
+
+    private static final int ENTRY_HEADER_SIZE = 8;
+    private static final int EXISTING_WAGONS = -1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private CRC32 crc = new CRC32();
+    private int groupSize;
+    private int uncommittedEntries;
+    private int entryStart;
+    private long generation;
+
+    /* Representation invariants:
+        the file starts with a header holding generation
+        buffer holds the entries not yet written to the channel
+        0 <= uncommittedEntries < groupSize
+     */
+
+    /**
+     * Opens the journal in the given file, appending to the entries already in it
+     * The journal follows the given snapshot: a journal that follows an older snapshot
+     * (left by a crash during a checkpoint) only holds entries the snapshot already contains, and is emptied.
+     *
+     * @param file
+     * @param snapshot the last checkpoint (the file does not need to exist)
+     * @param groupSize the number of entries that are forced to disk together
+     * @return the journal
+     * @throws IOException when the file cannot be opened, or is a journal without header
+     * (written by an older version: recover the yard and start a new journal)
+     */
+    public static Journal open(Path file, Path snapshot, int groupSize) throws IOException {
+        if (groupSize < 1) {
+            throw new IllegalArgumentException("groupSize must be at least 1");
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Journal journal = new Journal(channel, groupSize);
+            long snapshotGeneration = YardReader.readGeneration(snapshot);
+            if (channel.size() < HEADER_SIZE) {
+                //A header that was cut short by a crash has no entries after it
+                channel.truncate(0);
+                journal.writeHeader(snapshotGeneration);
+            } else {
+                journal.generation = readHeader(channel);
+                if (journal.generation < 0) {
+                    throw new IOException("Journal without header: " + file);
+                }
+                //recover() skips such a journal, so new entries must not be appended to it
+                if (journal.generation < snapshotGeneration) {
+                    channel.truncate(HEADER_SIZE);
+                    channel.force(true);
+                    journal.writeHeader(snapshotGeneration);
+                }
+            }
+            channel.position(channel.size());
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Journal(FileChannel channel, int groupSize) {
+        this.channel = channel;
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * @param channel
+     * @return the generation in the header of the journal
+     * (-1 if the journal has no header)
+     */
+    static long readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            return -1;
+        }
+        return header.getLong();
+    }
+
+    /**
+     * Overwrites the header of the journal with the given generation and forces it to disk
+     */
+    private void writeHeader(long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putLong(generation);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(true);
+        this.generation = generation;
+    }
+
+    /**
+     * Writes all collected entries to the journal file and forces them to disk
+     *
+     * @throws IOException when the file cannot be written
+     */
+    public synchronized void commit() throws IOException {
+        write();
+        channel.force(false);
+        uncommittedEntries = 0;
+    }
+
+    /**
+     * Saves the complete yard as a new snapshot and empties the journal,
+     * so recovery only has to replay the changes made after this checkpoint.
+     * The snapshot is replaced atomically, a crash leaves either the old or the new snapshot.
+     * The new snapshot gets the next generation; until the journal is emptied, its header holds
+     * the generation of the old snapshot, so a crash in between does not replay its entries twice.
+     *
+     * @param yard
+     * @param snapshot
+     * @throws IOException when the snapshot or the journal cannot be written
+     */
+    public synchronized void checkpoint(Yard yard, Path snapshot) throws IOException {
+        commit();
+        long previous = YardReader.readGeneration(snapshot);
+        long next = previous + 1;
+
+        //Write the new snapshot to disk completely before it replaces the old one
+        Path nextSnapshot = snapshot.resolveSibling(snapshot.getFileName() + ".next");
+        YardWriter.write(yard, nextSnapshot, next);
+        if (generation != previous) {
+            writeHeader(previous);
+        }
+        Files.move(nextSnapshot, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(snapshot.toAbsolutePath().getParent());
+
+        //Drop the entries before the journal follows the new snapshot
+        channel.truncate(HEADER_SIZE);
+        channel.force(true);
+        writeHeader(next);
+    }
+
+    /**
+     * Forces the entries of the given directory to disk, so a rename in it survives a power loss
+     */
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            //Windows cannot open directories, and makes the rename durable itself
+        }
+    }
+
+    /**
+     * Commits the collected entries and closes the journal file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Rebuilds a yard from a snapshot and the journal written after it
+     * An incomplete or damaged entry at the end of the journal (from a crash while writing) is ignored,
+     * and so is a journal that follows an older snapshot (from a crash during a checkpoint).
+     *
+     * @param snapshot the last checkpoint (a new yard is started if the file does not exist)
+     * @param journal (no changes are replayed if the file does not exist)
+     * @return the yard
+     * @throws IOException when the files cannot be read, or the journal does not fit the snapshot
+     */
+    public static Yard recover(Path snapshot, Path journal) throws IOException {
+        Yard yard = Files.exists(snapshot) ? YardReader.read(snapshot) : new Yard();
+        if (Files.exists(journal)) {
+            new JournalReplay(yard).replay(journal, YardReader.readGeneration(snapshot));
+        }
+        return yard;
+    }
+
+    @Override
+    public synchronized void locomotiveAdded(Yard yard, Locomotive locomotive) {
+        //Engines without a weight limit keep the shorter entry
+        boolean weightLimited = locomotive.getMaxPullingWeight() != Locomotive.NO_WEIGHT_LIMIT;
+        ByteBuffer entry = startEntry(weightLimited ? WEIGHT_LIMITED_LOCOMOTIVE_ADDED : LOCOMOTIVE_ADDED,
+                weightLimited ? 12 : 8);
+        entry.putInt(locomotive.getLocNumber());
+        entry.putInt(locomotive.getMaxWagons());
+        if (weightLimited) {
+            entry.putInt(locomotive.getMaxPullingWeight());
+        }
+        endEntry();
+    }
+
+    @Override
+    public synchronized void trainAdded(Yard yard, Train train) {
+        byte[] origin = train.getOrigin().getBytes(StandardCharsets.UTF_8);
+        byte[] destination = train.getDestination().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = startEntry(TRAIN_ADDED, 4 + 2 + origin.length + 2 + destination.length
+                + sequenceSize(train.getNumberOfWagons()));
+        entry.putInt(yard.getLocomotives().indexOf(train.getEngine()));
+        entry.putShort((short) origin.length).put(origin);
+        entry.putShort((short) destination.length).put(destination);
+        putNewSequence(entry, train.getFirstWagon(), train.getNumberOfWagons());
+        endEntry();
+    }
+
+    @Override
+    public synchronized void trainRemoved(Yard yard, Train train) {
+        ByteBuffer entry = startEntry(TRAIN_REMOVED, 4);
+        entry.putInt(yard.indexOfTrain(train));
+        endEntry();
+    }
+
+    @Override
+    public synchronized void wagonsReplaced(Train train, Wagon sequence) {
+        int sequenceLength = sequence == null ? 0 : sequence.getSequenceLength();
+        ByteBuffer entry = startEntry(WAGONS_REPLACED, 4 + sequenceSize(train, sequence, sequenceLength));
+        entry.putInt(train.getYard().indexOfTrain(train));
+        putSequence(entry, train, sequence, sequenceLength);
+        endEntry();
+    }
+
+    @Override
+    public synchronized void wagonsInserted(Train train, int position, Wagon sequence, int sequenceLength) {
+        ByteBuffer entry = startEntry(WAGONS_INSERTED, 8 + sequenceSize(train, sequence, sequenceLength));
+        entry.putInt(train.getYard().indexOfTrain(train));
+        entry.putInt(position);
+        putSequence(entry, train, sequence, sequenceLength);
+        endEntry();
+    }
+
+    @Override
+    public synchronized void wagonMoved(Train fromTrain, Wagon wagon, Train toTrain) {
+        ByteBuffer entry = startEntry(WAGON_MOVED, 12);
+        entry.putInt(fromTrain.getYard().indexOfTrain(fromTrain));
+        entry.putInt(wagon.getId());
+        entry.putInt(fromTrain.getYard().indexOfTrain(toTrain));
+        endEntry();
+    }
+
+    @Override
+    public synchronized void trainSplit(Train fromTrain, int position, Train toTrain) {
+        ByteBuffer entry = startEntry(TRAIN_SPLIT, 12);
+        entry.putInt(fromTrain.getYard().indexOfTrain(fromTrain));
+        entry.putInt(position);
+        entry.putInt(toTrain == null ? -1 : fromTrain.getYard().indexOfTrain(toTrain));
+        endEntry();
+    }
+
+    @Override
+    public synchronized void wagonsSpliced(Train fromTrain, int fromPosition, int toPosition, Train toTrain, int position) {
+        ByteBuffer entry = startEntry(WAGONS_SPLICED, 20);
+        entry.putInt(fromTrain.getYard().indexOfTrain(fromTrain));
+        entry.putInt(fromPosition);
+        entry.putInt(toPosition);
+        entry.putInt(fromTrain.getYard().indexOfTrain(toTrain));
+        entry.putInt(position);
+        endEntry();
+    }
+
+    @Override
+    public synchronized void trainReversed(Train train) {
+        ByteBuffer entry = startEntry(TRAIN_REVERSED, 4);
+        entry.putInt(train.getYard().indexOfTrain(train));
+        endEntry();
+    }
+
+    /**
+     * Reserves room for an entry in the buffer and writes its operation code
+     *
+     * @param code
+     * @param operandsSize the number of bytes of the operands
+     * @return the buffer to put the operands in
+     */
+    private ByteBuffer startEntry(byte code, int operandsSize) {
+        int entrySize = ENTRY_HEADER_SIZE + 1 + operandsSize;
+        if (buffer.remaining() < entrySize) {
+            try {
+                write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (buffer.capacity() < entrySize) {
+                buffer = ByteBuffer.allocate(entrySize);
+            }
+        }
+        entryStart = buffer.position();
+        buffer.putInt(1 + operandsSize);
+        buffer.putInt(0);
+        buffer.put(code);
+        return buffer;
+    }
+
+    /**
+     * Fills in the checksum of the entry just put in the buffer,
+     * and forces the journal to disk when a group of entries is complete
+     */
+    private void endEntry() {
+        int operationStart = entryStart + ENTRY_HEADER_SIZE;
+        crc.reset();
+        crc.update(buffer.array(), operationStart, buffer.position() - operationStart);
+        buffer.putInt(entryStart + 4, (int) crc.getValue());
+
+        if (++uncommittedEntries == groupSize) {
+            try {
+                commit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * @param numberOfWagons
+     * @return the number of bytes of a sequence of new wagons
+     */
+    private static int sequenceSize(int numberOfWagons) {
+        return 4 + numberOfWagons * YardFile.WAGON_RECORD_SIZE;
+    }
+
+    /**
+     * @return the number of bytes of the given sequence when inserted into the given train
+     */
+    private static int sequenceSize(Train train, Wagon sequence, int sequenceLength) {
+        return isInYard(train, sequence) ? 8 : sequenceSize(sequenceLength);
+    }
+
+    /**
+     * @return whether the sequence is already part of a train of the yard of the given train,
+     * so replay can find it by id
+     */
+    private static boolean isInYard(Train train, Wagon sequence) {
+        return sequence != null && sequence.getTrain() != null && sequence.getTrain().getYard() == train.getYard();
+    }
+
+    private static void putSequence(ByteBuffer entry, Train train, Wagon sequence, int sequenceLength) {
+        if (isInYard(train, sequence)) {
+            entry.putInt(EXISTING_WAGONS);
+            entry.putInt(sequence.getId());
+        } else {
+            putNewSequence(entry, sequence, sequenceLength);
+        }
+    }
+
+    private static void putNewSequence(ByteBuffer entry, Wagon sequence, int sequenceLength) {
+        entry.putInt(sequenceLength);
+        Wagon current = sequence;
+        for (int i = 0; i < sequenceLength; i++) {
+            entry.putInt(current.getId());
+            if (current instanceof PassengerWagon) {
+                entry.put(YardFile.PASSENGER_WAGON);
+                entry.putInt(((PassengerWagon) current).getNumberOfSeats());
+            } else {
+                entry.put(YardFile.FREIGHT_WAGON);
+                entry.putInt(((FreightWagon) current).getMaxWeight());
+            }
+            current = current.getNextWagon();
+        }
+    }
+
+    /**
+     * Writes the entries in the buffer to the journal file (without forcing them to disk)
+     */
+    private void write() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,193 @@
+package persistence;
+
+import models.FreightWagon;
+import models.Locomotive;
+import models.PassengerWagon;
+import models.Train;
+import models.Wagon;
+import models.Yard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Applies the entries of a journal (see Journal) to a yard, in the order they were written.
+ */
+class JournalReplay {
+    private Yard yard;
+    private int entryNumber;
+
+    JournalReplay(Yard yard) {
+        this.yard = yard;
+    }
+
+    /**
+     * Replays all complete entries of the given journal file
+     * Stops at the first entry that is incomplete or fails its checksum.
+     * Nothing is replayed when the journal follows an older snapshot than the one of the yard;
+     * a journal without header (from an older version) is replayed completely.
+     *
+     * @param file
+     * @param snapshotGeneration the checkpoint generation of the snapshot the yard was read from
+     * @return the number of entries replayed
+     * @throws IOException when the file cannot be read or an entry cannot be applied to the yard
+     */
+    int replay(Path file, long snapshotGeneration) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Journal too large to map: " + file);
+            }
+            long generation = Journal.readHeader(channel);
+            if (generation >= 0 && generation < snapshotGeneration) {
+                return entryNumber;
+            }
+            MappedByteBuffer journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (generation >= 0) {
+                journal.position(Journal.HEADER_SIZE);
+            }
+            CRC32 crc = new CRC32();
+            while (journal.remaining() >= 8) {
+                int length = journal.getInt();
+                int checksum = journal.getInt();
+                if (length < 1 || length > journal.remaining()) {
+                    break;
+                }
+                ByteBuffer operation = journal.slice();
+                operation.limit(length);
+                crc.reset();
+                crc.update(operation);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                operation.rewind();
+                apply(operation);
+                entryNumber++;
+                journal.position(journal.position() + length);
+            }
+        }
+        return entryNumber;
+    }
+
+    private void apply(ByteBuffer operation) throws IOException {
+        byte code = operation.get();
+        boolean applied;
+        switch (code) {
+            case Journal.LOCOMOTIVE_ADDED:
+                yard.addLocomotive(new Locomotive(operation.getInt(), operation.getInt()));
+                applied = true;
+                break;
+            case Journal.WEIGHT_LIMITED_LOCOMOTIVE_ADDED:
+                yard.addLocomotive(new Locomotive(operation.getInt(), operation.getInt(), operation.getInt()));
+                applied = true;
+                break;
+            case Journal.TRAIN_ADDED:
+                Locomotive engine = yard.getLocomotives().get(operation.getInt());
+                Train train = new Train(engine, getString(operation), getString(operation));
+                applied = train.setFirstWagon(getSequence(operation)) && yard.addTrain(train);
+                break;
+            case Journal.TRAIN_REMOVED:
+                applied = yard.removeTrain(getTrain(operation));
+                break;
+            case Journal.WAGONS_REPLACED:
+                applied = getTrain(operation).setFirstWagon(getSequence(operation));
+                break;
+            case Journal.WAGONS_INSERTED:
+                Train into = getTrain(operation);
+                int position = operation.getInt();
+                applied = into.insertAtPosition(position, getSequence(operation));
+                break;
+            case Journal.WAGON_MOVED:
+                Train from = getTrain(operation);
+                int wagonId = operation.getInt();
+                applied = from.moveOneWagon(wagonId, getTrainOrOutside(operation));
+                break;
+            case Journal.TRAIN_SPLIT:
+                Train split = getTrain(operation);
+                int splitPosition = operation.getInt();
+                applied = split.splitAtPosition(splitPosition, getTrainOrOutside(operation));
+                break;
+            case Journal.WAGONS_SPLICED:
+                Train spliced = getTrain(operation);
+                int fromPosition = operation.getInt();
+                int toPosition = operation.getInt();
+                Train to = getTrainOrOutside(operation);
+                int splicePosition = operation.getInt();
+                //Wagons that left the yard go to a new train outside it
+                applied = to.spliceAtPosition(to.getYard() == yard ? splicePosition : 1, spliced, fromPosition, toPosition);
+                break;
+            case Journal.TRAIN_REVERSED:
+                getTrain(operation).reverse();
+                applied = true;
+                break;
+            default:
+                throw new IOException("Journal entry " + entryNumber + " has unknown operation " + code);
+        }
+        if (!applied) {
+            throw new IOException("Journal entry " + entryNumber + " does not fit the yard (operation " + code + ")");
+        }
+    }
+
+    private Train getTrain(ByteBuffer operation) throws IOException {
+        int index = operation.getInt();
+        if (index < 0 || index >= yard.getTrains().size()) {
+            throw new IOException("Journal entry " + entryNumber + " refers to unknown train " + index);
+        }
+        return yard.getTrains().get(index);
+    }
+
+    /**
+     * @return the train of the yard the operation refers to,
+     * or a new train outside the yard for wagons that left the yard
+     */
+    private Train getTrainOrOutside(ByteBuffer operation) throws IOException {
+        if (operation.getInt(operation.position()) == -1) {
+            operation.getInt();
+            return new Train(new Locomotive(0, Integer.MAX_VALUE / 2), "", "");
+        }
+        return getTrain(operation);
+    }
+
+    /**
+     * @return the sequence of wagons the operation refers to:
+     * a sequence in one of the trains of the yard, or a sequence of new wagons (null if empty)
+     */
+    private Wagon getSequence(ByteBuffer operation) throws IOException {
+        int numberOfWagons = operation.getInt();
+        if (numberOfWagons == -1) {
+            int id = operation.getInt();
+            Wagon existing = yard.findWagonById(id);
+            if (existing == null) {
+                throw new IOException("Journal entry " + entryNumber + " refers to unknown wagon " + id);
+            }
+            return existing;
+        }
+
+        Wagon first = null;
+        Wagon previous = null;
+        for (int i = 0; i < numberOfWagons; i++) {
+            int id = operation.getInt();
+            byte type = operation.get();
+            int capacity = operation.getInt();
+            Wagon wagon = type == YardFile.PASSENGER_WAGON ? new PassengerWagon(id, capacity) : new FreightWagon(id, capacity);
+            if (previous == null) {
+                first = wagon;
+            } else {
+                wagon.attachTo(previous);
+            }
+            previous = wagon;
+        }
+        return first;
+    }
+
+    private static String getString(ByteBuffer operation) {
+        byte[] bytes = new byte[operation.getShort()];
+        operation.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
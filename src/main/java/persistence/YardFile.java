@@ -0,0 +1,36 @@
+package persistence;
+
+/**
+ * Layout of the binary yard file, written by YardWriter and read by YardReader.
+ * All numbers are big-endian.
+ *
+ * <pre>
+ * header      int magic, short version, long checkpoint generation,
+ *             int number of locomotives, int number of trains, int number of wagons in all trains
+ * locomotive  int locNumber, int maxWagons, int maxPullingWeight (repeated)
+ * train       int index of its locomotive, string origin, string destination,
+ *             int number of wagons, then per wagon:
+ *             int id, byte type, int seats or max weight         (repeated)
+ * string      short number of bytes, UTF-8 bytes
+ * </pre>
+ *
+ * Version 1 files have no maxPullingWeight; their locomotives can pull any weight.
+ * Files before version 3 have no checkpoint generation, which is then 0 (see Journal.checkpoint).
+ * A file written outside a checkpoint has generation 0 as well.
+ */
+final class YardFile {
+    static final int MAGIC = 0x54524E53; // "TRNS"
+    static final short VERSION = 3;
+
+    static final byte PASSENGER_WAGON = 1;
+    static final byte FREIGHT_WAGON = 2;
+
+    static final int WAGON_RECORD_SIZE = 4 + 1 + 4;
+    static final int LOCOMOTIVE_RECORD_SIZE = 4 + 4 + 4;
+    static final int LOCOMOTIVE_RECORD_SIZE_V1 = 4 + 4;
+    /** A train with empty strings and no wagons */
+    static final int MIN_TRAIN_RECORD_SIZE = 4 + 2 + 2 + 4;
+
+    private YardFile() {
+    }
+}
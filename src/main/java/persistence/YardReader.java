@@ -0,0 +1,167 @@
+package persistence;
+
+import models.FreightWagon;
+import models.Locomotive;
+import models.PassengerWagon;
+import models.Train;
+import models.Wagon;
+import models.Yard;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads a yard from a file in the binary yard file format (see YardFile).
+ * The file is mapped into memory and its records are read straight from the mapping,
+ * without copies into intermediate buffers or parsing of text.
+ * The yard is sized up front for the number of wagons in the file,
+ * and the wagons of every train are attached in one bulk attach.
+ */
+public class YardReader {
+    private MappedByteBuffer buffer;
+
+    /**
+     * Reads a yard from the given file
+     *
+     * @param file
+     * @return a new yard with the locomotives and trains of the file
+     * @throws IOException when the file cannot be read or is not a valid yard file
+     */
+    public static Yard read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Yard file too large to map: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new YardReader(buffer).readYard();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Yard file is truncated: " + file, e);
+        }
+    }
+
+    /**
+     * Reads only the checkpoint generation from the header of the given file
+     *
+     * @param file
+     * @return the generation (0 if the file does not exist or was written before version 3)
+     * @throws IOException when the file cannot be read or is not a valid yard file
+     */
+    static long readGeneration(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(4 + 2 + 8);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.read(header, 0);
+        }
+        header.flip();
+        if (header.remaining() < 6 || header.getInt() != YardFile.MAGIC) {
+            throw new IOException("Not a yard file");
+        }
+        short version = header.getShort();
+        if (version < 3) {
+            return 0;
+        }
+        if (header.remaining() < 8) {
+            throw new IOException("Yard file is truncated: " + file);
+        }
+        return header.getLong();
+    }
+
+    private YardReader(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    private Yard readYard() throws IOException {
+        if (buffer.remaining() < 4 || buffer.getInt() != YardFile.MAGIC) {
+            throw new IOException("Not a yard file");
+        }
+        short version = buffer.getShort();
+        if (version < 1 || version > YardFile.VERSION) {
+            throw new IOException("Unsupported yard file version " + version);
+        }
+        if (version >= 3) {
+            buffer.getLong();   // the checkpoint generation, see readGeneration
+        }
+        //The counts are checked against the bytes left, so a corrupt count cannot allocate a huge array
+        int offset = buffer.position();
+        int numberOfLocomotives = buffer.getInt();
+        int numberOfTrains = buffer.getInt();
+        int numberOfWagons = buffer.getInt();
+        int locomotiveRecordSize = version >= 2 ? YardFile.LOCOMOTIVE_RECORD_SIZE : YardFile.LOCOMOTIVE_RECORD_SIZE_V1;
+        if (numberOfLocomotives < 0 || (long) numberOfLocomotives * locomotiveRecordSize > buffer.remaining()) {
+            throw new IOException("Invalid number of locomotives " + numberOfLocomotives + " at offset " + offset);
+        }
+        if (numberOfTrains < 0 || (long) numberOfTrains * YardFile.MIN_TRAIN_RECORD_SIZE > buffer.remaining()) {
+            throw new IOException("Invalid number of trains " + numberOfTrains + " at offset " + (offset + 4));
+        }
+        if (numberOfWagons < 0 || (long) numberOfWagons * YardFile.WAGON_RECORD_SIZE > buffer.remaining()) {
+            throw new IOException("Invalid number of wagons " + numberOfWagons + " at offset " + (offset + 8));
+        }
+
+        Yard yard = new Yard(numberOfWagons);
+        Locomotive[] locomotives = new Locomotive[numberOfLocomotives];
+        for (int i = 0; i < numberOfLocomotives; i++) {
+            int locNumber = buffer.getInt();
+            int maxWagons = buffer.getInt();
+            int maxPullingWeight = version >= 2 ? buffer.getInt() : Locomotive.NO_WEIGHT_LIMIT;
+            locomotives[i] = new Locomotive(locNumber, maxWagons, maxPullingWeight);
+            yard.addLocomotive(locomotives[i]);
+        }
+
+        for (int t = 0; t < numberOfTrains; t++) {
+            int locomotiveIndex = buffer.getInt();
+            if (locomotiveIndex < 0 || locomotiveIndex >= numberOfLocomotives) {
+                throw new IOException("Train " + t + " refers to unknown locomotive " + locomotiveIndex);
+            }
+            String origin = getString();
+            String destination = getString();
+            Train train = yard.createTrain(locomotives[locomotiveIndex], origin, destination);
+
+            offset = buffer.position();
+            int trainLength = buffer.getInt();
+            if (trainLength < 0 || (long) trainLength * YardFile.WAGON_RECORD_SIZE > buffer.remaining()) {
+                throw new IOException("Train " + t + " has an invalid number of wagons " + trainLength
+                        + " at offset " + offset);
+            }
+            Wagon[] wagons = new Wagon[trainLength];
+            for (int w = 0; w < trainLength; w++) {
+                wagons[w] = getWagon();
+            }
+            if (!train.attachAllToRear(wagons)) {
+                throw new IOException("The wagons of train " + t + " cannot be attached to it");
+            }
+        }
+        return yard;
+    }
+
+    private Wagon getWagon() throws IOException {
+        int id = buffer.getInt();
+        byte type = buffer.get();
+        int capacity = buffer.getInt();
+        if (type == YardFile.PASSENGER_WAGON) {
+            return new PassengerWagon(id, capacity);
+        } else if (type == YardFile.FREIGHT_WAGON) {
+            return new FreightWagon(id, capacity);
+        }
+        throw new IOException("Unknown type " + type + " of wagon " + id);
+    }
+
+    private String getString() throws IOException {
+        int offset = buffer.position();
+        short length = buffer.getShort();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid string length " + length + " at offset " + offset);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,131 @@
+package persistence;
+
+import models.FreightWagon;
+import models.Locomotive;
+import models.PassengerWagon;
+import models.Train;
+import models.Wagon;
+import models.Yard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the locomotives and trains of a yard in the binary yard file format (see YardFile).
+ * Records are collected in one direct buffer that is written to the file channel whenever it is full.
+ */
+public class YardWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Writes the given yard to the given file, replacing its contents,
+     * and forces the file to disk before it is closed
+     *
+     * @param yard
+     * @param file
+     * @throws IOException when the file cannot be written
+     */
+    public static void write(Yard yard, Path file) throws IOException {
+        write(yard, file, 0);
+    }
+
+    /**
+     * Writes the given yard to the given file as the snapshot of a checkpoint
+     *
+     * @param yard
+     * @param file
+     * @param generation the checkpoint generation stamped in the header
+     * @throws IOException when the file cannot be written
+     */
+    static void write(Yard yard, Path file, long generation) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            new YardWriter(channel).writeYard(yard, generation);
+            channel.force(true);
+        }
+    }
+
+    private YardWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    private void writeYard(Yard yard, long generation) throws IOException {
+        List<Locomotive> locomotives = yard.getLocomotives();
+        List<Train> trains = yard.getTrains();
+
+        buffer.putInt(YardFile.MAGIC);
+        buffer.putShort(YardFile.VERSION);
+        buffer.putLong(generation);
+        buffer.putInt(locomotives.size());
+        buffer.putInt(trains.size());
+        buffer.putInt(yard.getNumberOfWagons());
+
+        Map<Locomotive, Integer> locomotiveIndex = new IdentityHashMap<>();
+        for (Locomotive locomotive : locomotives) {
+            locomotiveIndex.put(locomotive, locomotiveIndex.size());
+            ensureRoom(12);
+            buffer.putInt(locomotive.getLocNumber());
+            buffer.putInt(locomotive.getMaxWagons());
+            buffer.putInt(locomotive.getMaxPullingWeight());
+        }
+
+        for (Train train : trains) {
+            ensureRoom(4);
+            buffer.putInt(locomotiveIndex.get(train.getEngine()));
+            putString(train.getOrigin());
+            putString(train.getDestination());
+            ensureRoom(4);
+            buffer.putInt(train.getNumberOfWagons());
+            for (Wagon w : train) {
+                putWagon(w);
+            }
+        }
+        flush();
+    }
+
+    private void putWagon(Wagon wagon) throws IOException {
+        ensureRoom(YardFile.WAGON_RECORD_SIZE);
+        buffer.putInt(wagon.getId());
+        if (wagon instanceof PassengerWagon) {
+            buffer.put(YardFile.PASSENGER_WAGON);
+            buffer.putInt(((PassengerWagon) wagon).getNumberOfSeats());
+        } else {
+            buffer.put(YardFile.FREIGHT_WAGON);
+            buffer.putInt(((FreightWagon) wagon).getMaxWeight());
+        }
+    }
+
+    private void putString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("Name too long for a yard file: " + value.substring(0, 32) + "...");
+        }
+        ensureRoom(2 + bytes.length);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensureRoom(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
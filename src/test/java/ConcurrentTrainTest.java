@@ -0,0 +1,354 @@
+import models.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentTrainTest {
+    private static final int WRITERS = 4;
+    private static final int WAGONS_PER_WRITER = 5000;
+    private static final int READERS = 4;
+    private static final int SEATS = 40;
+
+    @Test
+    public void T30_concurrentReadersSeeConsistentTrains() throws InterruptedException {
+        ConcurrentTrain train = new ConcurrentTrain(new Locomotive(1, WRITERS * WAGONS_PER_WRITER), "Amsterdam", "Paris");
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            int firstId = w * WAGONS_PER_WRITER;
+            threads.add(new Thread(() -> {
+                for (int id = firstId; id < firstId + WAGONS_PER_WRITER; id++) {
+                    Wagon wagon = new PassengerWagon(id, SEATS);
+                    boolean attached = id % 3 == 0 ? train.insertAtFront(wagon) : train.attachToRear(wagon);
+                    assertTrue(attached);
+                }
+            }));
+        }
+
+        // shunts the rear of the train off to a train of its own and attaches it again
+        threads.add(new Thread(() -> {
+            Train siding = new Train(new Locomotive(2, WRITERS * WAGONS_PER_WRITER), "Amsterdam", "Siding");
+            while (writing.get()) {
+                int position = train.getNumberOfWagons() / 2 + 1;
+                if (train.splitAtPosition(position, siding)) {
+                    Wagon shunted = siding.getFirstWagon();
+                    siding.setFirstWagon(null);
+                    assertTrue(train.attachToRear(shunted));
+                }
+            }
+        }));
+
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> {
+                while (writing.get()) {
+                    Wagon[] wagons = train.snapshot();
+                    Set<Integer> ids = new HashSet<>();
+                    for (int i = 0; i < wagons.length; i++) {
+                        assertTrue(ids.add(wagons[i].getId()));
+                    }
+
+                    int seats = train.getTotalNumberOfSeats();
+                    assertEquals(0, seats % SEATS);
+                    assertTrue(seats <= WRITERS * WAGONS_PER_WRITER * SEATS);
+
+                    int id = wagons.length == 0 ? 0 : wagons[wagons.length / 2].getId();
+                    Wagon found = train.findWagonById(id);
+                    assertTrue(found == null || found.getId() == id);
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        for (Thread thread : threads.subList(0, WRITERS)) {
+            thread.join();
+        }
+        writing.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(WRITERS * WAGONS_PER_WRITER, train.getNumberOfWagons());
+        assertEquals(WRITERS * WAGONS_PER_WRITER * SEATS, train.getTotalNumberOfSeats());
+        Wagon[] wagons = train.snapshot();
+        for (int i = 1; i < wagons.length; i++) {
+            assertSame(wagons[i - 1], wagons[i].getPreviousWagon());
+            assertSame(wagons[i], wagons[i - 1].getNextWagon());
+        }
+        for (int id = 0; id < WRITERS * WAGONS_PER_WRITER; id++) {
+            assertEquals(id, train.findWagonById(id).getId());
+        }
+    }
+
+    @Test
+    public void T31_concurrentTransfersKeepAllWagonsWithinCapacity() throws InterruptedException {
+        int trains = 4;
+        int wagonsPerTrain = 500;
+        int capacity = 700;
+        ConcurrentTrain[] yard = new ConcurrentTrain[trains];
+        for (int t = 0; t < trains; t++) {
+            yard[t] = new ConcurrentTrain(new Locomotive(t, capacity), "Amsterdam", "Track " + t);
+            for (int id = t * wagonsPerTrain; id < (t + 1) * wagonsPerTrain; id++) {
+                assertTrue(yard[t].attachToRear(new FreightWagon(id, 1000)));
+            }
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < 8; s++) {
+            long seed = s;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 5000; i++) {
+                    ConcurrentTrain from = yard[random.nextInt(trains)];
+                    ConcurrentTrain to = yard[random.nextInt(trains)];
+                    int operation = random.nextInt(3);
+                    if (operation == 0) {
+                        from.moveOneWagon(random.nextInt(trains * wagonsPerTrain), to);
+                    } else if (operation == 1) {
+                        from.moveWagons(new int[]{random.nextInt(trains * wagonsPerTrain), random.nextInt(trains * wagonsPerTrain)}, to);
+                    } else {
+                        from.splitAtPosition(from.getNumberOfWagons() - random.nextInt(5), to);
+                    }
+                    assertTrue(to.getNumberOfWagons() <= capacity);
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        int total = 0;
+        Set<Integer> ids = new HashSet<>();
+        for (ConcurrentTrain train : yard) {
+            assertTrue(train.getNumberOfWagons() <= capacity);
+            assertEquals(1000 * train.getNumberOfWagons(), train.getTotalMaxWeight());
+            for (Wagon wagon : train) {
+                assertTrue(ids.add(wagon.getId()));
+                assertSame(wagon, train.findWagonById(wagon.getId()));
+            }
+            total += train.getNumberOfWagons();
+        }
+        assertEquals(trains * wagonsPerTrain, total);
+    }
+
+    @Test
+    public void T31_moveWagonsIsAllOrNothing() {
+        ConcurrentTrain from = new ConcurrentTrain(new Locomotive(1, 10), "Amsterdam", "Paris");
+        ConcurrentTrain to = new ConcurrentTrain(new Locomotive(2, 2), "Amsterdam", "London");
+        for (int id = 1; id <= 3; id++) {
+            from.attachToRear(new PassengerWagon(id, 40));
+        }
+
+        assertFalse(from.moveWagons(new int[]{1, 2, 3}, to));
+        assertFalse(from.moveWagons(new int[]{1, 4}, to));
+        assertFalse(from.moveWagons(new int[]{2, 2}, to));
+        assertEquals(3, from.getNumberOfWagons());
+        assertEquals(0, to.getNumberOfWagons());
+
+        assertTrue(from.moveWagons(new int[]{3, 1}, to));
+        assertEquals(3, to.findWagonAtPosition(1).getId());
+        assertEquals(1, to.findWagonAtPosition(2).getId());
+        assertEquals(1, from.getNumberOfWagons());
+        assertEquals(2, from.findWagonAtPosition(1).getId());
+    }
+
+    @Test
+    public void T32_concurrentReservationsNeverShareASeat() throws InterruptedException {
+        int wagons = 50;
+        ConcurrentTrain train = new ConcurrentTrain(new Locomotive(1, wagons), "Amsterdam", "Paris");
+        for (int id = 0; id < wagons; id++) {
+            assertTrue(train.attachToRear(new PassengerWagon(id, 100 + id)));
+        }
+        int seats = train.getTotalNumberOfSeats();
+        AtomicBoolean reserving = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<List<SeatReservation>> reservations = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int r = 0; r < READERS; r++) {
+            List<SeatReservation> reserved = new ArrayList<>();
+            reservations.add(reserved);
+            int groupSize = 1 + r;
+            threads.add(new Thread(() -> {
+                SeatReservation reservation;
+                int made = 0;
+                while ((reservation = train.reserveAdjacentSeats(groupSize)) != null) {
+                    reserved.add(reservation);
+                    // give back one of every seven reservations
+                    if (++made % 7 == 0) {
+                        assertTrue(train.release(reserved.remove(reserved.size() - 2)));
+                    }
+                }
+            }));
+        }
+
+        // shunts the rear of the train off and back while seats are being sold
+        Thread shunter = new Thread(() -> {
+            Train siding = new Train(new Locomotive(2, wagons), "Amsterdam", "Siding");
+            while (reserving.get()) {
+                if (train.splitAtPosition(wagons / 2, siding)) {
+                    Wagon shunted = siding.getFirstWagon();
+                    siding.setFirstWagon(null);
+                    assertTrue(train.attachToRear(shunted));
+                }
+            }
+        });
+
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        shunter.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        shunter.start();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        reserving.set(false);
+        shunter.join();
+        assertNull(failure.get());
+
+        Set<Long> taken = new HashSet<>();
+        int reservedSeats = 0;
+        for (List<SeatReservation> reserved : reservations) {
+            for (SeatReservation reservation : reserved) {
+                for (int seat = reservation.getFirstSeat(); seat < reservation.getFirstSeat() + reservation.getNumberOfSeats(); seat++) {
+                    assertTrue(reservation.getWagon().isReserved(seat));
+                    assertTrue(taken.add((long) reservation.getWagon().getId() << 32 | seat));
+                    reservedSeats++;
+                }
+            }
+        }
+        int bitmapSeats = 0;
+        for (Wagon wagon : train) {
+            bitmapSeats += ((PassengerWagon) wagon).getNumberOfReservedSeats();
+        }
+        assertEquals(reservedSeats, bitmapSeats);
+        assertEquals(seats - reservedSeats, train.getNumberOfFreeSeats());
+    }
+
+    @Test
+    public void T33_concurrentLoadingKeepsTheTotalLoadExact() throws InterruptedException {
+        int wagons = 20;
+        ConcurrentTrain train = new ConcurrentTrain(new Locomotive(1, wagons), "Rotterdam", "Duisburg");
+        for (int id = 0; id < wagons; id++) {
+            assertTrue(train.attachToRear(new FreightWagon(id, 1000)));
+        }
+        assertFalse(train.loadCargo(0, -1));
+        assertFalse(train.loadCargo(wagons, 1));
+        AtomicBoolean loading = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] loaded = new long[WRITERS];
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                Random random = new Random(writer);
+                for (int i = 0; i < 20000; i++) {
+                    int weight = 1 + random.nextInt(20);
+                    int wagonId = random.nextInt(wagons);
+                    if (train.loadCargo(wagonId, weight)) {
+                        loaded[writer] += weight;
+                    }
+                    if (train.unloadCargo(wagonId, weight / 2)) {
+                        loaded[writer] -= weight / 2;
+                    }
+                }
+            }));
+        }
+
+        // shunts the rear of the train off and back while it is being loaded
+        Thread shunter = new Thread(() -> {
+            Train siding = new Train(new Locomotive(2, wagons), "Rotterdam", "Siding");
+            while (loading.get()) {
+                if (train.splitAtPosition(wagons / 2, siding)) {
+                    Wagon shunted = siding.getFirstWagon();
+                    siding.setFirstWagon(null);
+                    assertTrue(train.attachToRear(shunted));
+                }
+            }
+        });
+
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        shunter.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+        shunter.start();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        loading.set(false);
+        shunter.join();
+        assertNull(failure.get());
+
+        long expected = 0;
+        for (long load : loaded) {
+            expected += load;
+        }
+        long wagonLoads = 0;
+        for (Wagon wagon : train) {
+            wagonLoads += ((FreightWagon) wagon).getLoad();
+        }
+        assertEquals(expected, wagonLoads);
+        assertEquals(expected, train.getTotalLoad());
+    }
+
+    @Test
+    public void T33_concurrentLoadingStopsAtThePullingWeight() throws InterruptedException {
+        int wagons = 20;
+        int maxPullingWeight = 50000;
+        ConcurrentTrain train = new ConcurrentTrain(new Locomotive(1, wagons, maxPullingWeight), "Rotterdam", "Duisburg");
+        for (int id = 0; id < wagons; id++) {
+            assertTrue(train.attachToRear(new FreightWagon(id, 10000)));
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                // keep loading until no wagon takes any more
+                for (int refused = 0; refused < wagons; ) {
+                    refused = train.loadCargo((writer + refused) % wagons, 7) ? 0 : refused + 1;
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        long wagonLoads = 0;
+        for (Wagon wagon : train) {
+            wagonLoads += ((FreightWagon) wagon).getLoad();
+        }
+        assertEquals(wagonLoads, train.getTotalLoad());
+        assertTrue(wagonLoads <= maxPullingWeight);
+        assertTrue(wagonLoads > maxPullingWeight - 7);
+    }
+}
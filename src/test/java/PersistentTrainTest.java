@@ -0,0 +1,154 @@
+import models.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentTrainTest {
+    Train passengerTrain;
+    PersistentTrain persistentTrain;
+
+    @BeforeEach
+    private void setup() {
+        passengerTrain = new Train(new Locomotive(24531, 10), "Amsterdam", "Paris");
+        for (int id = 8001; id <= 8005; id++) {
+            passengerTrain.attachToRear(new PassengerWagon(id, 40 + id % 10));
+        }
+        persistentTrain = PersistentTrain.of(passengerTrain);
+    }
+
+    @Test
+    public void T50_convertsToAndFromTrain() {
+        assertEquals(passengerTrain.toString(), persistentTrain.toString());
+        assertEquals(passengerTrain.getTotalNumberOfSeats(), persistentTrain.getTotalNumberOfSeats());
+        assertTrue(persistentTrain.isPassengerTrain());
+
+        Train copy = persistentTrain.toTrain();
+        assertEquals(passengerTrain.toString(), copy.toString());
+        assertNotSame(passengerTrain.getFirstWagon(), copy.getFirstWagon());
+        assertNotSame(passengerTrain.getFirstWagon(), persistentTrain.findWagonAtPosition(1));
+    }
+
+    @Test
+    public void T50_changesLeaveTheOldVersionIntact() {
+        PersistentTrain longer = persistentTrain.insertAtPosition(3, new PassengerWagon(8010, 20));
+        PersistentTrain reversed = longer.reverse();
+        PersistentTrain.Shunt shunt = reversed.splitAtPosition(4,
+                PersistentTrain.empty(new Locomotive(63427, 5), "Amsterdam", "London"));
+
+        assertEquals("[Loc-24531][Wagon-8001][Wagon-8002][Wagon-8003][Wagon-8004][Wagon-8005] with 5 wagons from Amsterdam to Paris",
+                persistentTrain.toString());
+        assertEquals(8010, longer.findWagonAtPosition(3).getId());
+        assertEquals(8010, reversed.findWagonAtPosition(4).getId());
+        assertEquals(8005, reversed.findWagonAtPosition(1).getId());
+        assertEquals("[Loc-24531][Wagon-8005][Wagon-8004][Wagon-8003] with 3 wagons from Amsterdam to Paris",
+                shunt.getFromTrain().toString());
+        assertEquals("[Loc-63427][Wagon-8010][Wagon-8002][Wagon-8001] with 3 wagons from Amsterdam to London",
+                shunt.getToTrain().toString());
+        assertEquals(20 + 41 + 42, shunt.getToTrain().getTotalNumberOfSeats());
+        assertEquals(6, reversed.getNumberOfWagons());
+    }
+
+    @Test
+    public void T50_incompatibleChangesReturnTheSameVersion() {
+        assertSame(persistentTrain, persistentTrain.attachToRear(new FreightWagon(9001, 50000)));
+        assertSame(persistentTrain, persistentTrain.insertAtPosition(7, new PassengerWagon(8010, 20)));
+        PersistentTrain full = persistentTrain;
+        for (int id = 8006; id <= 8010; id++) {
+            full = full.attachToRear(new PassengerWagon(id, 40));
+        }
+        assertEquals(10, full.getNumberOfWagons());
+        assertSame(full, full.insertAtFront(new PassengerWagon(8011, 40)));
+        assertNull(full.splitAtPosition(2, persistentTrain));
+        assertNull(persistentTrain.splitAtPosition(6, PersistentTrain.empty(new Locomotive(1, 5), "A", "B")));
+        assertNull(persistentTrain.splitAtPosition(1, PersistentTrain.empty(new Locomotive(1, 5), "A", "B")
+                .attachToRear(new FreightWagon(9001, 50000))));
+    }
+
+    @Test
+    public void T50_handsOutCopiesOfItsWagons() {
+        PersistentTrain freight = PersistentTrain.empty(new Locomotive(63427, 5), "Amsterdam", "London")
+                .attachToRear(new FreightWagon(9001, 50000));
+        PersistentTrain longer = freight.attachToRear(new FreightWagon(9002, 60000));
+
+        FreightWagon found = (FreightWagon) freight.findWagonAtPosition(1);
+        assertTrue(found.loadCargo(1000));
+        assertNotSame(found, freight.findWagonAtPosition(1));
+        assertEquals(0, ((FreightWagon) longer.findWagonAtPosition(1)).getLoad());
+        FreightWagon iterated = (FreightWagon) longer.iterator().next();
+        assertTrue(iterated.loadCargo(2000));
+        assertEquals(0, ((FreightWagon) freight.iterator().next()).getLoad());
+    }
+
+    @Test
+    public void T50_cantSplitIntoItself() {
+        assertNull(persistentTrain.splitAtPosition(3, persistentTrain));
+        assertEquals(5, persistentTrain.getNumberOfWagons());
+    }
+
+    @Test
+    public void T50_copiesAReversedTrainWithoutRelinkingIt() {
+        passengerTrain.reverse();
+        Iterator<Wagon> iterator = passengerTrain.iterator();
+        PersistentTrain copy = PersistentTrain.of(passengerTrain);
+
+        assertEquals(passengerTrain.toString(), copy.toString());
+        assertEquals(8005, iterator.next().getId());
+    }
+
+    @Test
+    public void T51_randomEditsAgreeWithAList() {
+        Random random = new Random(7);
+        PersistentTrain train = PersistentTrain.empty(new Locomotive(1, 100000), "Amsterdam", "Paris");
+        List<Integer> ids = new ArrayList<>();
+        List<PersistentTrain> versions = new ArrayList<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 6 || ids.isEmpty()) {
+                int position = 1 + random.nextInt(ids.size() + 1);
+                train = train.insertAtPosition(position, new PassengerWagon(i, i % 50));
+                ids.add(position - 1, i);
+            } else if (operation < 8) {
+                train = train.reverse();
+                Collections.reverse(ids);
+            } else {
+                int position = 1 + random.nextInt(ids.size());
+                PersistentTrain.Shunt shunt = train.splitAtPosition(position,
+                        PersistentTrain.empty(new Locomotive(2, 100000), "Amsterdam", "Siding"));
+                train = shunt.getFromTrain().attachToRear(shunt.getToTrain().toTrain().getFirstWagon());
+                List<Integer> rear = new ArrayList<>(ids.subList(position - 1, ids.size()));
+                ids.subList(position - 1, ids.size()).clear();
+                ids.addAll(rear);
+            }
+            if (i % 100 == 0) {
+                versions.add(train);
+                expected.add(new ArrayList<>(ids));
+            }
+        }
+
+        for (int v = 0; v < versions.size(); v++) {
+            List<Integer> actual = new ArrayList<>();
+            for (Wagon w : versions.get(v)) {
+                actual.add(w.getId());
+            }
+            assertEquals(expected.get(v), actual);
+            int seats = 0;
+            for (int id : expected.get(v)) {
+                seats += id % 50;
+            }
+            assertEquals(seats, versions.get(v).getTotalNumberOfSeats());
+            if (!actual.isEmpty()) {
+                int position = 1 + actual.size() / 2;
+                assertEquals((int) actual.get(position - 1), versions.get(v).findWagonAtPosition(position).getId());
+            }
+        }
+    }
+}
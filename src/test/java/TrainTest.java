@@ -1,8 +1,24 @@
+import metrics.LatencyHistogram;
+import metrics.TrainMetrics;
 import models.*;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class TrainTest {
@@ -227,4 +243,660 @@ public class TrainTest {
         }
         assertEquals(27006, sumIds);
     }
+
+    @Test
+    public void T20_cachedTotalsFollowMutations() {
+        assertTrue(passengerTrain.splitAtPosition(5, trainWithoutWagons));
+        assertEquals(4, passengerTrain.getNumberOfWagons());
+        assertEquals(126, passengerTrain.getTotalNumberOfSeats());
+        assertEquals(8004, passengerTrain.getLastWagonAttached().getId());
+        assertEquals(128, trainWithoutWagons.getTotalNumberOfSeats());
+        assertEquals(8007, trainWithoutWagons.getLastWagonAttached().getId());
+
+        assertTrue(trainWithoutWagons.moveOneWagon(8007, passengerTrain));
+        assertEquals(5, passengerTrain.getNumberOfWagons());
+        assertEquals(166, passengerTrain.getTotalNumberOfSeats());
+        assertEquals(8007, passengerTrain.getLastWagonAttached().getId());
+        assertEquals(2, trainWithoutWagons.getNumberOfWagons());
+        assertEquals(8006, trainWithoutWagons.getLastWagonAttached().getId());
+
+        assertTrue(freightTrain.insertAtPosition(2, freightWagon1));
+        assertEquals(5, freightTrain.getNumberOfWagons());
+        assertEquals(240000, freightTrain.getTotalMaxWeight());
+        assertEquals(9011, freightTrain.findWagonAtPosition(2).getId());
+        assertEquals(9012, freightTrain.findWagonAtPosition(3).getId());
+        assertEquals(9002, freightTrain.findWagonAtPosition(4).getId());
+        assertEquals(9003, freightTrain.getLastWagonAttached().getId());
+    }
+
+    @Test
+    public void T20_takingWagonsFromAnotherTrainUpdatesThatTrain() {
+        assertTrue(trainWithoutWagons.attachToRear(passengerTrain.findWagonAtPosition(6)));
+        assertEquals(5, passengerTrain.getNumberOfWagons());
+        assertEquals(8005, passengerTrain.getLastWagonAttached().getId());
+        assertFalse(passengerTrain.getLastWagonAttached().hasNextWagon());
+        assertEquals(2, trainWithoutWagons.getNumberOfWagons());
+        assertEquals(84, trainWithoutWagons.getTotalNumberOfSeats());
+
+        assertTrue(passengerTrain.splitAtPosition(1, trainWithoutWagons));
+        assertFalse(passengerTrain.hasWagons());
+        assertNull(passengerTrain.getLastWagonAttached());
+        assertEquals(0, passengerTrain.getTotalNumberOfSeats());
+        assertEquals(7, trainWithoutWagons.getNumberOfWagons());
+        assertFalse(trainWithoutWagons.getFirstWagon().hasPreviousWagon());
+    }
+
+    @Test
+    public void T21_cantAttachSequenceContainingAWagonIdAlreadyOnTrain() {
+        PassengerWagon duplicate = new PassengerWagon(8003, 20);
+        duplicate.attachTo(passengerWagon3);
+        assertTrue(trainWithoutWagons.attachToRear(new PassengerWagon(8003, 20)));
+        assertFalse(trainWithoutWagons.attachToRear(passengerWagon1));
+        assertEquals(1, trainWithoutWagons.getNumberOfWagons());
+    }
+
+    @Test
+    public void T21_findWagonByIdFollowsMovesAndSplits() {
+        Train longTrain = new Train(new Locomotive(1, 10000), "Amsterdam", "Rome");
+        for (int id = 1; id <= 5000; id++) {
+            assertTrue(longTrain.attachToRear(new FreightWagon(id, 1000)));
+        }
+        assertEquals(2500, longTrain.findWagonById(2500).getId());
+
+        Train otherTrain = new Train(new Locomotive(2, 10000), "Amsterdam", "Milan");
+        assertTrue(longTrain.splitAtPosition(2001, otherTrain));
+        assertTrue(otherTrain.moveOneWagon(4000, longTrain));
+        for (int id = 1; id <= 2000; id++) {
+            assertEquals(id, longTrain.findWagonById(id).getId());
+            assertNull(otherTrain.findWagonById(id));
+        }
+        for (int id = 2001; id <= 5000; id++) {
+            Train expected = id == 4000 ? longTrain : otherTrain;
+            assertEquals(id, expected.findWagonById(id).getId());
+        }
+        assertNull(otherTrain.findWagonById(4000));
+        assertNull(longTrain.findWagonById(3999));
+    }
+
+    @Test
+    public void T21_cantAttachSequenceRepeatingAWagonId() {
+        PassengerWagon repeated = new PassengerWagon(8013, 50);
+        repeated.attachTo(passengerWagon3);
+        assertEquals(Rejection.DUPLICATE_ID, trainWithoutWagons.attachRejection(passengerWagon1));
+        assertFalse(trainWithoutWagons.attachToRear(passengerWagon1));
+        assertFalse(trainWithoutWagons.insertAtFront(passengerWagon1));
+        assertFalse(trainWithoutWagons.insertAtPosition(1, passengerWagon1));
+        assertEquals(0, trainWithoutWagons.getNumberOfWagons());
+
+        assertFalse(trainWithoutWagons.setFirstWagon(passengerWagon1));
+        assertFalse(trainWithoutWagons.hasWagons());
+
+        Train other = new Train(new Locomotive(3, 10), "Amsterdam", "Rome");
+        repeated.detachFromPrevious();
+        assertTrue(other.setFirstWagon(passengerWagon1));
+        assertTrue(trainWithoutWagons.attachToRear(new PassengerWagon(8012, 50)));
+        assertFalse(trainWithoutWagons.spliceAtPosition(1, other, 2, 3));
+        assertTrue(trainWithoutWagons.spliceAtPosition(1, other, 3, 3));
+        assertEquals(2, trainWithoutWagons.getNumberOfWagons());
+        assertEquals(8013, trainWithoutWagons.findWagonById(8013).getId());
+    }
+
+    @Test
+    public void T22_reverseMillionWagonTrain() {
+        int length = 1_000_000;
+        Train longTrain = new Train(new Locomotive(1, length), "Amsterdam", "Rome");
+        for (int id = 1; id <= length; id++) {
+            longTrain.attachToRear(new FreightWagon(id, 1000));
+        }
+
+        longTrain.reverse();
+        assertEquals(length, longTrain.getNumberOfWagons());
+        assertEquals(length, longTrain.getFirstWagon().getId());
+        assertEquals(1, longTrain.getLastWagonAttached().getId());
+        assertFalse(longTrain.getFirstWagon().hasPreviousWagon());
+        assertFalse(longTrain.getLastWagonAttached().hasNextWagon());
+        assertEquals(length, longTrain.getFirstWagon().getSequenceLength());
+        assertEquals(1000L * length, longTrain.getTotalMaxWeight());
+    }
+
+    @Test
+    public void T23_positionIndexAgreesWithWagonLinks() {
+        Train indexed = new Train(new Locomotive(1, 5000), "Amsterdam", "Rome");
+        Train other = new Train(new Locomotive(2, 5000), "Amsterdam", "Milan");
+        indexed.enablePositionIndex();
+        other.enablePositionIndex();
+        Random random = new Random(42);
+
+        int nextId = 1;
+        for (int round = 0; round < 2000; round++) {
+            int operation = random.nextInt(6);
+            int position = 1 + random.nextInt(indexed.getNumberOfWagons() + 1);
+            if (operation == 0) {
+                indexed.attachToRear(new PassengerWagon(nextId++, 10));
+            } else if (operation == 1) {
+                indexed.insertAtFront(new PassengerWagon(nextId++, 10));
+            } else if (operation == 2) {
+                PassengerWagon sequence = new PassengerWagon(nextId++, 10);
+                new PassengerWagon(nextId++, 10).attachTo(sequence);
+                indexed.insertAtPosition(position, sequence);
+            } else if (operation == 3 && indexed.hasWagons()) {
+                indexed.moveOneWagon(indexed.findWagonAtPosition(1 + random.nextInt(indexed.getNumberOfWagons())).getId(), other);
+            } else if (operation == 4 && other.getNumberOfWagons() > 1) {
+                other.splitAtPosition(1 + random.nextInt(other.getNumberOfWagons()), indexed);
+            } else if (operation == 5) {
+                indexed.reverse();
+            }
+
+            for (Train train : new Train[]{indexed, other}) {
+                int count = 0;
+                for (Wagon w : train) {
+                    count++;
+                    assertSame(w, train.findWagonAtPosition(count));
+                }
+                assertEquals(count, train.getNumberOfWagons());
+                assertNull(train.findWagonAtPosition(count + 1));
+            }
+        }
+    }
+
+    @Test
+    public void T23_positionIndexServesLongTrains() {
+        int length = 200_000;
+        Train longTrain = new Train(new Locomotive(1, length * 2), "Amsterdam", "Rome");
+        longTrain.enablePositionIndex();
+        for (int id = 1; id <= length; id++) {
+            longTrain.attachToRear(new FreightWagon(id, 1000));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            longTrain.insertAtPosition(length / 2, new FreightWagon(length + 1 + i, 1000));
+        }
+        assertEquals(length + 10_000, longTrain.getNumberOfWagons());
+        assertEquals(length + 10_000, longTrain.findWagonAtPosition(length / 2).getId());
+        assertEquals(length + 1, longTrain.findWagonAtPosition(length / 2 + 9_999).getId());
+
+        Train rest = new Train(new Locomotive(2, length * 2), "Amsterdam", "Milan");
+        assertTrue(longTrain.splitAtPosition(length / 2, rest));
+        assertEquals(length / 2 - 1, longTrain.getNumberOfWagons());
+        assertEquals(length / 2 - 1, longTrain.getLastWagonAttached().getId());
+    }
+
+    @Test
+    public void T24_compactFleetRoundTripsTrains() {
+        CompactFleet fleet = new CompactFleet();
+        int first = fleet.store(passengerTrain);
+        int empty = fleet.store(trainWithoutWagons);
+
+        assertEquals(7, fleet.size());
+        assertEquals(CompactFleet.NONE, empty);
+        assertEquals(7, fleet.getSequenceLength(first));
+        assertEquals(254, fleet.getTotalNumberOfSeats(first));
+        assertEquals(0, fleet.getTotalMaxWeight(first));
+        assertEquals(8002, fleet.getId(fleet.getNextSlot(first)));
+
+        Train copy = fleet.toTrain(first, new Locomotive(1, 7), "Amsterdam", "Paris");
+        assertEquals(passengerTrain.toString().replace("24531", "1"), copy.toString());
+        assertEquals(254, copy.getTotalNumberOfSeats());
+        assertTrue(fleet.view(first) instanceof PassengerWagon);
+        assertFalse(fleet.view(first).hasNextWagon());
+        assertFalse(fleet.toTrain(empty, new Locomotive(2, 7), "Amsterdam", "London").hasWagons());
+    }
+
+    @Test
+    public void T24_compactFleetKeepsWagonIdsUnique() {
+        CompactFleet fleet = new CompactFleet(4);
+        for (int id = 1; id <= 100; id++) {
+            assertEquals(id - 1, fleet.addFreightWagon(id, 1000));
+        }
+        assertEquals(CompactFleet.NONE, fleet.addPassengerWagon(50, 40));
+        assertEquals(CompactFleet.NONE, fleet.addWagon(new FreightWagon(100, 1000)));
+        assertEquals(49, fleet.findSlot(50));
+        assertEquals(CompactFleet.NONE, fleet.findSlot(101));
+
+        int first = fleet.store(passengerTrain);
+        assertEquals(CompactFleet.NONE, fleet.store(passengerTrain));
+        assertEquals(107, fleet.size());
+        assertEquals(first, fleet.findSlot(8001));
+    }
+
+    @Test
+    public void T25_renderTrainIntoBuilderOrOutput() throws IOException {
+        String expected = "[Loc-63427][Wagon-9001][Wagon-9002][Wagon-9003] with 3 wagons from Amsterdam to Berlin";
+        assertEquals(expected, freightTrain.toString());
+
+        StringBuilder builder = new StringBuilder("Status: ");
+        freightTrain.appendTo(builder, 1);
+        assertEquals("Status: [Loc-63427][Wagon-9001]...(+2 wagons) with 3 wagons from Amsterdam to Berlin", builder.toString());
+
+        Train longTrain = new Train(new Locomotive(1, 5000), "Amsterdam", "Rome");
+        for (int id = 1; id <= 5000; id++) {
+            longTrain.attachToRear(new FreightWagon(id, 1000));
+        }
+        StringWriter writer = new StringWriter();
+        longTrain.appendTo(writer, Integer.MAX_VALUE);
+        assertEquals(longTrain.toString(), writer.toString());
+        assertTrue(writer.toString().endsWith("[Wagon-5000] with 5000 wagons from Amsterdam to Rome"));
+
+        builder.setLength(0);
+        trainWithoutWagons.appendTo(builder, 0);
+        assertEquals("[Loc-29123] with 0 wagons from Amsterdam to London", builder.toString());
+    }
+
+    @Test
+    public void T26_attachBatchOfWagonsToRear() {
+        assertTrue(freightTrain.attachAllToRear(new FreightWagon(9004, 10000), new FreightWagon(9005, 20000)));
+        assertEquals(5, freightTrain.getNumberOfWagons());
+        assertEquals(150000, freightTrain.getTotalMaxWeight());
+        assertEquals(9005, freightTrain.getLastWagonAttached().getId());
+        assertEquals(9004, freightTrain.findWagonAtPosition(4).getId());
+        assertSame(freightTrain.findWagonAtPosition(3), freightTrain.findWagonAtPosition(4).getPreviousWagon());
+
+        assertTrue(trainWithoutWagons.attachAllToRear(IntStream.rangeClosed(1, 7)
+                .mapToObj(id -> new PassengerWagon(id, 10))));
+        assertEquals(7, trainWithoutWagons.getNumberOfWagons());
+        assertEquals(70, trainWithoutWagons.getTotalNumberOfSeats());
+        assertTrue(trainWithoutWagons.attachAllToRear(Collections.emptyList()));
+    }
+
+    @Test
+    public void T26_batchIsRejectedAsAWhole() {
+        // capacity of the engine
+        assertFalse(passengerTrain.attachAllToRear(new PassengerWagon(1, 10)));
+        // wagon of the wrong type
+        assertFalse(freightTrain.attachAllToRear(new FreightWagon(1, 10), new PassengerWagon(2, 10)));
+        // id already on the train
+        assertFalse(freightTrain.attachAllToRear(new FreightWagon(1, 10), new FreightWagon(9002, 10)));
+        // id twice in the batch
+        assertFalse(freightTrain.attachAllToRear(new FreightWagon(1, 10), new FreightWagon(1, 10)));
+        // wagon already connected to other wagons
+        assertFalse(freightTrain.attachAllToRear(freightWagon2));
+        // mixed batch on a train without wagons
+        assertFalse(trainWithoutWagons.attachAllToRear(new PassengerWagon(1, 10), new FreightWagon(2, 10)));
+
+        assertEquals(3, freightTrain.getNumberOfWagons());
+        assertEquals(120000, freightTrain.getTotalMaxWeight());
+        assertFalse(trainWithoutWagons.hasWagons());
+    }
+
+    @Test
+    public void T27_iteratorThrowsAtTheEnd() {
+        Iterator<Wagon> iterator = trainWithoutWagons.iterator();
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+    }
+
+    @Test
+    public void T27_streamOverWagons() {
+        assertEquals(254, passengerTrain.stream().mapToInt(w -> ((PassengerWagon) w).getNumberOfSeats()).sum());
+        assertEquals(0, trainWithoutWagons.stream().count());
+        assertTrue(passengerTrain.spliterator().hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED));
+        assertEquals(7, passengerTrain.spliterator().getExactSizeIfKnown());
+    }
+
+    @Test
+    public void T27_parallelStreamSplitsLongTrains() {
+        for (boolean indexed : new boolean[]{false, true}) {
+            int length = 100_000;
+            Train longTrain = new Train(new Locomotive(1, length), "Amsterdam", "Rome");
+            for (int id = 1; id <= length; id++) {
+                longTrain.attachToRear(new FreightWagon(id, id % 100));
+            }
+            if (indexed) {
+                longTrain.enablePositionIndex();
+            }
+
+            Spliterator<Wagon> rear = longTrain.spliterator();
+            Spliterator<Wagon> front = rear.trySplit();
+            assertEquals(length / 2, front.estimateSize());
+            assertEquals(length / 2, rear.estimateSize());
+            int[] firstId = new int[1];
+            assertTrue(rear.tryAdvance(w -> firstId[0] = w.getId()));
+            assertEquals(length / 2 + 1, firstId[0]);
+
+            long sum = longTrain.stream().parallel().mapToLong(w -> ((FreightWagon) w).getMaxWeight()).sum();
+            assertEquals(longTrain.getTotalMaxWeight(), sum);
+            List<Integer> ids = longTrain.stream().parallel().map(Wagon::getId).collect(Collectors.toList());
+            for (int i = 0; i < length; i++) {
+                assertEquals(i + 1, (int) ids.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void T28_iteratorFailsFastAfterChange() {
+        Iterator<Wagon> iterator = passengerTrain.iterator();
+        assertEquals(8001, iterator.next().getId());
+        assertTrue(passengerTrain.splitAtPosition(3, trainWithoutWagons));
+        assertThrows(ConcurrentModificationException.class, iterator::next);
+
+        Iterator<Wagon> spareIterator = trainWithoutWagons.iterator();
+        assertTrue(passengerTrain.attachToRear(trainWithoutWagons.getLastWagonAttached()));
+        assertThrows(ConcurrentModificationException.class, spareIterator::next);
+
+        assertThrows(ConcurrentModificationException.class,
+                () -> passengerTrain.stream().forEach(w -> passengerTrain.reverse()));
+    }
+
+    @Test
+    public void T28_snapshotIteratorKeepsItsView() {
+        Iterator<Wagon> snapshot = passengerTrain.snapshotIterator();
+        assertEquals(8001, snapshot.next().getId());
+        assertTrue(passengerTrain.splitAtPosition(3, trainWithoutWagons));
+        passengerTrain.reverse();
+
+        int count = 1;
+        int lastId = 0;
+        while (snapshot.hasNext()) {
+            lastId = snapshot.next().getId();
+            count++;
+        }
+        assertEquals(7, count);
+        assertEquals(8007, lastId);
+        assertEquals(8002, passengerTrain.snapshotIterator().next().getId());
+    }
+
+    @Test
+    public void T29_metricsCountOperationsAndRejections() throws Exception {
+        TrainMetrics metrics = TrainMetrics.enable();
+        try {
+            assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(TrainMetrics.OBJECT_NAME)));
+
+            assertEquals(Rejection.TYPE_MISMATCH, freightTrain.attachRejection(passengerWagon1));
+            assertEquals(Rejection.CAPACITY, passengerTrain.attachRejection(passengerWagon1));
+            assertNull(trainWithoutWagons.attachRejection(passengerWagon1));
+            assertFalse(freightTrain.attachToRear(passengerWagon1));
+            assertFalse(passengerTrain.attachToRear(passengerWagon1));
+            assertTrue(trainWithoutWagons.attachToRear(passengerWagon1));
+            assertFalse(passengerTrain.insertAtPosition(9, new PassengerWagon(8021, 20)));
+            assertFalse(passengerTrain.moveOneWagon(1, trainWithoutWagons));
+            assertTrue(passengerTrain.moveOneWagon(8001, trainWithoutWagons));
+            assertTrue(passengerTrain.splitAtPosition(6, trainWithoutWagons));
+            assertNull(passengerTrain.findWagonAtPosition(6));
+            assertNotNull(passengerTrain.findWagonById(8002));
+            passengerTrain.reverse();
+
+            assertEquals(3, metrics.getCalls(TrainMetrics.Operation.ATTACH));
+            assertEquals(2, metrics.getRejectedCalls(TrainMetrics.Operation.ATTACH));
+            assertEquals(1, metrics.getRejectedCalls(TrainMetrics.Operation.INSERT));
+            assertEquals(2, metrics.getCalls(TrainMetrics.Operation.MOVE));
+            assertEquals(1, metrics.getCalls(TrainMetrics.Operation.SPLIT));
+            assertEquals(2, metrics.getCalls(TrainMetrics.Operation.FIND));
+            assertEquals(1, metrics.getRejectedCalls(TrainMetrics.Operation.FIND));
+            assertEquals(1, metrics.getCalls(TrainMetrics.Operation.REVERSE));
+            assertEquals(1, metrics.getRejections(Rejection.TYPE_MISMATCH));
+            assertEquals(1, metrics.getRejections(Rejection.CAPACITY));
+            assertEquals(1, metrics.getRejections(Rejection.INVALID_POSITION));
+            assertEquals(1, metrics.getRejections(Rejection.UNKNOWN_WAGON));
+            assertEquals(3, metrics.getLatencies(TrainMetrics.Operation.ATTACH).getCount());
+            assertEquals((Long) 1L, metrics.getCalls().get("REVERSE"));
+        } finally {
+            TrainMetrics.disable();
+        }
+
+        assertNull(Train.getMetrics());
+        passengerTrain.reverse();
+        assertEquals(1, metrics.getCalls(TrainMetrics.Operation.REVERSE));
+    }
+
+    @Test
+    public void T29_latencyHistogramKeepsRelativePrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 100000; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 0.001);
+        assertEquals(50000, histogram.getPercentile(50), 50000 / 32.0);
+        assertEquals(99000, histogram.getPercentile(99), 99000 / 32.0);
+        assertEquals(100000, histogram.getPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void T30_reverseOnlyFlipsTheDirection() {
+        Wagon wagon8001 = passengerTrain.findWagonById(8001);
+        passengerTrain.reverse();
+
+        assertEquals("8007,8006,8005,8004,8003,8002,8001", idsOf(passengerTrain));
+        assertEquals(8007, passengerTrain.findWagonAtPosition(1).getId());
+        assertEquals(8003, passengerTrain.findWagonAtPosition(5).getId());
+        assertNull(passengerTrain.findWagonAtPosition(8));
+        assertEquals(7, passengerTrain.findPositionOfWagon(wagon8001));
+        // the wagons keep their links until a caller needs them
+        assertEquals(8002, wagon8001.getNextWagon().getId());
+
+        assertEquals(8007, passengerTrain.getFirstWagon().getId());
+        assertEquals(8001, passengerTrain.getLastWagonAttached().getId());
+        assertNull(wagon8001.getNextWagon());
+        assertEquals(8002, wagon8001.getPreviousWagon().getId());
+        assertEquals("8007,8006,8005,8004,8003,8002,8001", idsOf(passengerTrain));
+    }
+
+    @Test
+    public void T30_reversedTrainAttachesAndInsertsInItsDirection() {
+        for (boolean indexed : new boolean[]{false, true}) {
+            setup();
+            if (indexed) {
+                freightTrain.enablePositionIndex();
+            }
+            freightTrain.reverse();
+            assertTrue(freightTrain.attachToRear(freightWagon1));
+            assertTrue(freightTrain.insertAtFront(new FreightWagon(9020, 1000)));
+            assertTrue(freightTrain.insertAtPosition(3, new FreightWagon(9021, 1000)));
+            assertEquals("9020,9003,9021,9002,9001,9011,9012", idsOf(freightTrain));
+            assertEquals(9021, freightTrain.findWagonAtPosition(3).getId());
+            assertEquals(6, freightTrain.findPositionOfWagon(freightWagon1));
+
+            assertTrue(freightTrain.attachAllToRear(new FreightWagon(9030, 1000), new FreightWagon(9031, 1000)));
+            freightTrain.reverse();
+            assertEquals("9031,9030,9012,9011,9001,9002,9021,9003,9020", idsOf(freightTrain));
+            freightTrain.reverse();
+
+            Train otherTrain = new Train(new Locomotive(1, 10), "Berlin", "Amsterdam");
+            assertTrue(freightTrain.moveOneWagon(9021, otherTrain));
+            assertTrue(freightTrain.splitAtPosition(6, otherTrain));
+            assertEquals("9020,9003,9002,9001,9011", idsOf(freightTrain));
+            assertEquals("9021,9012,9030,9031", idsOf(otherTrain));
+            assertEquals(9011, freightTrain.getLastWagonAttached().getId());
+            assertEquals(5, freightTrain.getFirstWagon().getSequenceLength());
+            assertEquals(181000, freightTrain.getTotalMaxWeight());
+        }
+    }
+
+    @Test
+    public void T31_coupleWholeTrains() {
+        Train shuttle = new Train(new Locomotive(1, 10), "Amsterdam", "Berlin");
+        shuttle.attachAllToRear(new FreightWagon(9021, 1000), new FreightWagon(9022, 1000));
+
+        assertTrue(freightTrain.coupleToRear(shuttle));
+        assertFalse(shuttle.hasWagons());
+        assertEquals(0, shuttle.getTotalMaxWeight());
+        assertNull(shuttle.getLastWagonAttached());
+        assertEquals("9001,9002,9003,9021,9022", idsOf(freightTrain));
+        assertEquals(122000, freightTrain.getTotalMaxWeight());
+        assertSame(freightTrain, freightTrain.findWagonById(9022).getTrain());
+
+        assertTrue(shuttle.coupleToFront(freightTrain));
+        assertTrue(freightTrain.coupleAtPosition(1, trainWithoutWagons));
+        assertEquals("9001,9002,9003,9021,9022", idsOf(shuttle));
+        assertEquals(5, shuttle.getFirstWagon().getSequenceLength());
+        assertFalse(new Train(new Locomotive(2, 4), "Berlin", "Rome").coupleToRear(shuttle));
+        Train passengers = new Train(new Locomotive(3, 20), "Berlin", "Rome");
+        passengers.attachToRear(passengerWagon1);
+        assertFalse(passengers.coupleAtPosition(2, shuttle));
+        assertFalse(shuttle.coupleToRear(shuttle));
+        assertEquals(5, shuttle.getNumberOfWagons());
+    }
+
+    @Test
+    public void T31_spliceRangesBetweenTrains() {
+        for (boolean indexed : new boolean[]{false, true}) {
+            setup();
+            Train longTrain = new Train(new Locomotive(1, 20), "Amsterdam", "Paris");
+            for (int id = 8101; id <= 8108; id++) {
+                longTrain.attachToRear(new PassengerWagon(id, 10));
+            }
+            if (indexed) {
+                longTrain.enablePositionIndex();
+                trainWithoutWagons.enablePositionIndex();
+            }
+
+            assertTrue(trainWithoutWagons.spliceAtPosition(1, longTrain, 3, 5));
+            assertTrue(trainWithoutWagons.spliceAtPosition(2, longTrain, 4, 5));
+            longTrain.reverse();
+            assertTrue(trainWithoutWagons.spliceAtPosition(6, longTrain, 1, 1));
+            assertEquals("8103,8107,8108,8104,8105,8106", idsOf(trainWithoutWagons));
+            assertEquals("8102,8101", idsOf(longTrain));
+            assertEquals(60, trainWithoutWagons.getTotalNumberOfSeats());
+            assertEquals(20, longTrain.getTotalNumberOfSeats());
+            assertEquals(5, trainWithoutWagons.findPositionOfWagon(trainWithoutWagons.findWagonById(8105)));
+            assertEquals(8108, trainWithoutWagons.findWagonAtPosition(3).getId());
+            assertEquals(8101, longTrain.getLastWagonAttached().getId());
+
+            assertFalse(trainWithoutWagons.spliceAtPosition(1, longTrain, 1, 2));
+            assertFalse(trainWithoutWagons.spliceAtPosition(8, longTrain, 1, 1));
+            assertFalse(longTrain.spliceAtPosition(1, trainWithoutWagons, 2, 7));
+            assertFalse(longTrain.spliceAtPosition(1, trainWithoutWagons, 3, 2));
+            assertFalse(freightTrain.spliceAtPosition(1, longTrain, 1, 1));
+            assertEquals(6, trainWithoutWagons.getNumberOfWagons());
+        }
+    }
+
+    @Test
+    public void T32_rangeTotalsMatchTheWagons() {
+        for (boolean indexed : new boolean[]{false, true}) {
+            Train seats = new Train(new Locomotive(1, 100), "Amsterdam", "Paris");
+            Train freight = new Train(new Locomotive(2, 100), "Amsterdam", "Berlin");
+            if (indexed) {
+                seats.enablePositionIndex();
+                freight.enablePositionIndex();
+            }
+            for (int id = 1; id <= 30; id++) {
+                seats.attachToRear(new PassengerWagon(id, id % 7 * 10));
+                freight.insertAtPosition(1 + id / 2, new FreightWagon(100 + id, id * 1000));
+            }
+            Train other = new Train(new Locomotive(3, 100), "Paris", "Amsterdam");
+            assertTrue(seats.splitAtPosition(25, other));
+            assertTrue(seats.spliceAtPosition(3, other, 2, 4));
+            freight.reverse();
+            assertTrue(freight.moveOneWagon(110, new Train(new Locomotive(4, 1), "Berlin", "Rome")));
+
+            for (Train train : new Train[]{seats, freight}) {
+                int n = train.getNumberOfWagons();
+                for (int from = 1; from <= n; from++) {
+                    int expectedSeats = 0;
+                    int expectedWeight = 0;
+                    for (int to = from; to <= n; to++) {
+                        Wagon wagon = train.findWagonAtPosition(to);
+                        expectedSeats += wagon instanceof PassengerWagon ? ((PassengerWagon) wagon).getNumberOfSeats() : 0;
+                        expectedWeight += wagon instanceof FreightWagon ? ((FreightWagon) wagon).getMaxWeight() : 0;
+                        assertEquals(expectedSeats, train.getNumberOfSeats(from, to));
+                        assertEquals(expectedWeight, train.getMaxWeight(from, to));
+                    }
+                }
+                assertEquals(0, train.getMaxWeight(n + 1, n));
+                assertEquals(0, train.getNumberOfSeats(0, n));
+            }
+            assertEquals(seats.getTotalNumberOfSeats(), seats.getNumberOfSeats(1, seats.getNumberOfWagons()));
+        }
+    }
+
+    @Test
+    public void T33_freeSeatsFollowReservationsAndShunting() {
+        assertEquals(254, passengerTrain.getNumberOfFreeSeats());
+        SeatReservation group = passengerTrain.reserveAdjacentSeats(40);
+        assertEquals(8004, group.getWagon().getId());
+        assertEquals(1, group.getFirstSeat());
+        assertNotNull(passengerTrain.reserveAdjacentSeats(30));
+        assertTrue(((PassengerWagon) passengerTrain.findWagonById(8003)).reserveSeat(18));
+        assertEquals(183, passengerTrain.getNumberOfFreeSeats());
+        assertNull(passengerTrain.reserveAdjacentSeats(45));
+        assertNull(freightTrain.reserveAdjacentSeats(1));
+
+        assertTrue(passengerTrain.moveOneWagon(8004, trainWithoutWagons));
+        assertEquals(4, trainWithoutWagons.getNumberOfFreeSeats());
+        assertEquals(179, passengerTrain.getNumberOfFreeSeats());
+        assertTrue(trainWithoutWagons.spliceAtPosition(1, passengerTrain, 1, 3));
+        assertEquals(4 + 34 + 17, trainWithoutWagons.getNumberOfFreeSeats());
+        assertEquals(128, passengerTrain.getNumberOfFreeSeats());
+
+        assertTrue(group.release());
+        assertFalse(group.release());
+        assertEquals(95, trainWithoutWagons.getNumberOfFreeSeats());
+        trainWithoutWagons.setFirstWagon(null);
+        assertEquals(0, trainWithoutWagons.getNumberOfFreeSeats());
+    }
+
+    @Test
+    public void T34_engineOnlyPullsItsMaxPullingWeight() {
+        Train heavyTrain = new Train(new Locomotive(70001, 10, 100000), "Rotterdam", "Duisburg");
+        assertEquals(100000, heavyTrain.getEngine().getMaxPullingWeight());
+        assertEquals(Locomotive.NO_WEIGHT_LIMIT, freightTrain.getEngine().getMaxPullingWeight());
+
+        assertTrue(freightWagon1.loadCargo(40000));
+        assertTrue(freightWagon2.loadCargo(50000));
+        assertTrue(heavyTrain.attachToRear(freightWagon1));
+        assertEquals(90000, heavyTrain.getTotalLoad());
+        FreightWagon container = new FreightWagon(9021, 30000);
+        assertTrue(container.loadCargo(20000));
+        assertFalse(heavyTrain.canAttach(container));
+        assertEquals(Rejection.OVERWEIGHT, heavyTrain.attachRejection(container));
+
+        // loads of wagons in a train count right away
+        assertTrue(freightWagon2.unloadCargo(15000));
+        assertEquals(75000, heavyTrain.getTotalLoad());
+        assertTrue(heavyTrain.attachToRear(container));
+        assertEquals(95000, heavyTrain.getTotalLoad());
+
+        // loading a wagon of the train must stay within the pulling weight as well
+        assertFalse(container.loadCargo(6000));
+        assertTrue(container.loadCargo(5000));
+        assertEquals(100000, heavyTrain.getTotalLoad());
+        assertTrue(container.unloadCargo(25000));
+        assertEquals(75000, heavyTrain.getTotalLoad());
+        assertTrue(new FreightWagon(9022, 200000).loadCargo(150000));
+    }
+
+    @Test
+    public void T34_shuntingChecksTheLoadOfTheWagons() {
+        Train heavyTrain = new Train(new Locomotive(70001, 10, 100000), "Rotterdam", "Duisburg");
+        assertTrue(freightWagon1.loadCargo(40000));
+        assertTrue(freightWagon2.loadCargo(40000));
+        assertTrue(heavyTrain.attachToRear(freightWagon1));
+        assertTrue(((FreightWagon) freightTrain.findWagonById(9001)).loadCargo(25000));
+        assertTrue(((FreightWagon) freightTrain.findWagonById(9002)).loadCargo(10000));
+        assertTrue(((FreightWagon) freightTrain.findWagonById(9003)).loadCargo(5000));
+        assertEquals(40000, freightTrain.getTotalLoad());
+
+        assertFalse(freightTrain.moveOneWagon(9001, heavyTrain));
+        assertTrue(freightTrain.moveOneWagon(9003, heavyTrain));
+        assertEquals(85000, heavyTrain.getTotalLoad());
+        assertEquals(35000, freightTrain.getTotalLoad());
+        assertFalse(freightTrain.splitAtPosition(1, heavyTrain));
+        assertTrue(freightTrain.splitAtPosition(2, heavyTrain));
+        assertEquals(95000, heavyTrain.getTotalLoad());
+        assertFalse(heavyTrain.spliceAtPosition(1, freightTrain, 1, 1));
+
+        FreightWagon container1 = new FreightWagon(9021, 30000);
+        FreightWagon container2 = new FreightWagon(9022, 30000);
+        assertTrue(container1.loadCargo(3000));
+        assertTrue(container2.loadCargo(3000));
+        assertFalse(heavyTrain.attachAllToRear(container1, container2));
+        assertTrue(heavyTrain.attachAllToRear(container1));
+        assertEquals(98000, heavyTrain.getTotalLoad());
+
+        heavyTrain.reverse();
+        assertTrue(trainWithoutWagons.spliceAtPosition(1, heavyTrain, 1, 2));
+        assertEquals(3000 + 10000, trainWithoutWagons.getTotalLoad());
+        assertEquals(85000, heavyTrain.getTotalLoad());
+        assertTrue(((FreightWagon) freightTrain.findWagonById(9001)).unloadCargo(10000));
+        assertTrue(heavyTrain.spliceAtPosition(1, freightTrain, 1, 1));
+        assertEquals(100000, heavyTrain.getTotalLoad());
+        assertEquals(0, freightTrain.getTotalLoad());
+    }
+
+    private static String idsOf(Train train) {
+        return train.stream().map(w -> String.valueOf(w.getId())).collect(Collectors.joining(","));
+    }
 }
@@ -3,6 +3,8 @@ import models.PassengerWagon;
 import models.Wagon;
 import org.junit.jupiter.api.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
@@ -316,4 +318,102 @@ public class WagonTest {
         assertEquals(passengerWagon1, passengerWagon2.getPreviousWagon());
         assertEquals(passengerWagon4, passengerWagon2.getNextWagon());
     }
+
+    @Test
+    public void T06_MillionWagonSequenceShouldNotOverflowTheStack() {
+        int length = 1_000_000;
+        Wagon first = new FreightWagon(1, 1000);
+        Wagon last = first;
+        for (int id = 2; id <= length; id++) {
+            Wagon next = new FreightWagon(id, 1000);
+            next.attachTo(last);
+            last = next;
+        }
+
+        assertEquals(length, first.getSequenceLength());
+        assertEquals(last, first.getLastWagonAttached());
+
+        Wagon rev = first.reverseSequence();
+        assertEquals(last, rev);
+        assertEquals(length, rev.getSequenceLength());
+        assertEquals(first, rev.getLastWagonAttached());
+        assertFalse(rev.hasPreviousWagon());
+        assertEquals(length - 1, rev.getNextWagon().getId());
+
+        // reverse the second half only, it stays attached to the first half
+        Wagon middle = rev;
+        for (int i = 1; i < length / 2; i++) {
+            middle = middle.getNextWagon();
+        }
+        Wagon secondHalf = middle.getNextWagon();
+        Wagon revHalf = secondHalf.reverseSequence();
+        assertEquals(first, revHalf);
+        assertEquals(middle, revHalf.getPreviousWagon());
+        assertEquals(length / 2, revHalf.getSequenceLength());
+        assertEquals(length, rev.getSequenceLength());
+    }
+
+    @Test
+    public void T07_RemovingALoneWagonIsASilentNoOp() {
+        PrintStream console = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+        try {
+            assertFalse(passengerWagon1.removeFromSequence());
+            assertFalse(passengerWagon1.detachFromPrevious());
+            assertFalse(passengerWagon1.detachTail());
+        } finally {
+            System.setOut(console);
+        }
+        assertEquals(0, output.size());
+
+        passengerWagon2.attachTo(passengerWagon1);
+        passengerWagon3.attachTo(passengerWagon2);
+        assertTrue(passengerWagon2.removeFromSequence());
+        assertTrue(passengerWagon1.removeFromSequence());
+        assertFalse(passengerWagon3.hasPreviousWagon());
+    }
+
+    @Test
+    public void T08_APassengerWagonReservesSeatsInItsBitmap() {
+        PassengerWagon wagon = new PassengerWagon(8101, 100);
+        assertEquals(100, wagon.getNumberOfFreeSeats());
+        assertFalse(wagon.releaseSeat(1));
+
+        assertTrue(wagon.reserveSeat(1));
+        assertFalse(wagon.reserveSeat(1));
+        assertTrue(wagon.reserveSeats(60, 10));
+        assertTrue(wagon.isReserved(64));
+        assertTrue(wagon.isReserved(65));
+        assertFalse(wagon.isReserved(70));
+        assertFalse(wagon.reserveSeats(55, 6));
+        assertFalse(wagon.isReserved(55));
+        assertFalse(wagon.reserveSeat(0));
+        assertFalse(wagon.reserveSeat(101));
+
+        assertEquals(2, wagon.reserveAdjacentSeats(50));
+        assertEquals(0, wagon.reserveAdjacentSeats(40));
+        assertEquals(70, wagon.reserveAdjacentSeats(31));
+        assertEquals(8, wagon.getNumberOfFreeSeats());
+        assertEquals(52, wagon.reserveAdjacentSeats(8));
+        assertEquals(0, wagon.reserveAdjacentSeats(1));
+
+        assertTrue(wagon.releaseSeats(60, 10));
+        assertFalse(wagon.releaseSeats(60, 10));
+        assertEquals(10, wagon.getNumberOfFreeSeats());
+        assertEquals(60, wagon.reserveAdjacentSeats(10));
+    }
+
+    @Test
+    public void T09_AFreightWagonIsLoadedUpToItsMaxWeight() {
+        FreightWagon wagon = new FreightWagon(9101, 50000);
+        assertEquals(0, wagon.getLoad());
+        assertTrue(wagon.loadCargo(30000));
+        assertTrue(wagon.loadCargo(20000));
+        assertFalse(wagon.loadCargo(1));
+        assertFalse(wagon.unloadCargo(50001));
+        assertFalse(wagon.loadCargo(-1));
+        assertTrue(wagon.unloadCargo(45000));
+        assertEquals(5000, wagon.getLoad());
+    }
 }
@@ -0,0 +1,361 @@
+import models.*;
+import persistence.ConsistImporter;
+import persistence.Journal;
+import persistence.YardReader;
+import persistence.YardWriter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class YardTest {
+    Yard yard;
+    Train amsterdamParis, amsterdamLondon, amsterdamBerlin;
+
+    @BeforeEach
+    private void setup() {
+        yard = new Yard();
+        amsterdamParis = yard.createTrain(new Locomotive(24531, 10), "Amsterdam", "Paris");
+        amsterdamLondon = yard.createTrain(new Locomotive(63427, 10), "Amsterdam", "London");
+        amsterdamBerlin = yard.createTrain(new Locomotive(29123, 10), "Amsterdam", "Berlin");
+        for (int id = 8001; id <= 8005; id++) {
+            amsterdamParis.attachToRear(new PassengerWagon(id, 40));
+        }
+        amsterdamLondon.attachToRear(new PassengerWagon(8101, 30));
+        amsterdamBerlin.attachAllToRear(new FreightWagon(9001, 50000), new FreightWagon(9002, 40000));
+    }
+
+    @Test
+    public void T40_yardKnowsTheTrainOfEveryWagon() {
+        assertEquals(8, yard.getNumberOfWagons());
+        assertEquals(3, yard.getTrains().size());
+        assertEquals(3, yard.getLocomotives().size());
+        assertSame(amsterdamParis, yard.findTrainOfWagon(8003));
+        assertSame(amsterdamBerlin, yard.findTrainOfWagon(9002));
+        assertEquals(3, yard.findPositionOfWagon(8003));
+        assertEquals(2, yard.findPositionOfWagon(9002));
+        assertNull(yard.findTrainOfWagon(1));
+        assertEquals(0, yard.findPositionOfWagon(1));
+    }
+
+    @Test
+    public void T40_yardFollowsMovesAndSplits() {
+        assertTrue(amsterdamParis.splitAtPosition(4, amsterdamLondon));
+        assertTrue(amsterdamLondon.moveOneWagon(8101, amsterdamParis));
+        amsterdamLondon.enablePositionIndex();
+        assertTrue(amsterdamLondon.insertAtFront(new PassengerWagon(8102, 30)));
+
+        assertEquals(9, yard.getNumberOfWagons());
+        assertSame(amsterdamLondon, yard.findTrainOfWagon(8004));
+        assertEquals(2, yard.findPositionOfWagon(8004));
+        assertSame(amsterdamParis, yard.findTrainOfWagon(8101));
+        assertEquals(4, yard.findPositionOfWagon(8101));
+        assertSame(amsterdamLondon, yard.findTrainOfWagon(8102));
+    }
+
+    @Test
+    public void T40_wagonIdCanOnlyBeUsedOnceInAYard() {
+        assertFalse(amsterdamLondon.attachToRear(new PassengerWagon(8003, 30)));
+        assertFalse(amsterdamLondon.attachAllToRear(new PassengerWagon(8201, 30), new PassengerWagon(8001, 30)));
+        assertFalse(amsterdamBerlin.insertAtFront(new FreightWagon(8101, 30)));
+        assertFalse(amsterdamLondon.setFirstWagon(new PassengerWagon(8001, 30)));
+        assertEquals(8101, amsterdamLondon.findWagonAtPosition(1).getId());
+        PassengerWagon replacement = new PassengerWagon(8101, 35);
+        assertTrue(amsterdamLondon.setFirstWagon(replacement));
+        assertSame(replacement, yard.findWagonById(8101));
+
+        Train outside = new Train(new Locomotive(1, 5), "Amsterdam", "Rome");
+        outside.attachToRear(new PassengerWagon(8001, 20));
+        assertFalse(yard.addTrain(outside));
+        assertNull(outside.getYard());
+
+        // a wagon that leaves the yard frees its id
+        assertTrue(amsterdamParis.moveOneWagon(8005, new Train(new Locomotive(2, 5), "Amsterdam", "Madrid")));
+        assertNull(yard.findWagonById(8005));
+        assertTrue(amsterdamLondon.attachToRear(new PassengerWagon(8005, 30)));
+    }
+
+    @Test
+    public void T40_removingATrainFreesItsWagonIds() {
+        assertTrue(yard.removeTrain(amsterdamBerlin));
+        assertFalse(yard.removeTrain(amsterdamBerlin));
+        assertEquals(6, yard.getNumberOfWagons());
+        assertNull(yard.findTrainOfWagon(9001));
+        assertEquals(3, yard.getLocomotives().size());
+        assertTrue(yard.addTrain(amsterdamBerlin));
+        assertSame(amsterdamBerlin, yard.findTrainOfWagon(9001));
+    }
+
+    @Test
+    public void T41_parallelTotalsEqualSequentialTotals() {
+        String[] cities = {"Paris", "London", "Berlin", "Rome"};
+        int nextId = 100000;
+        long seats = 0;
+        for (int t = 0; t < 2000; t++) {
+            Train train = yard.createTrain(new Locomotive(t, 50), "Utrecht", cities[t % cities.length]);
+            for (int w = 0; w < t % 50; w++) {
+                if (t % 3 == 0) {
+                    assertTrue(train.attachToRear(new FreightWagon(nextId++, 1000 + w)));
+                } else {
+                    assertTrue(train.attachToRear(new PassengerWagon(nextId++, w)));
+                    seats += w;
+                }
+            }
+        }
+
+        TrainTotals totals = yard.getTotals(true);
+        assertEquals(yard.getTotals(false), totals);
+        assertEquals(2003, totals.getNumberOfTrains());
+        assertEquals(yard.getNumberOfWagons(), totals.getNumberOfWagons());
+        assertEquals(seats + 5 * 40 + 30, totals.getTotalNumberOfSeats());
+
+        assertEquals(yard.getTotalsByRoute(false), yard.getTotalsByRoute(true));
+        assertEquals(7, yard.getTotalsByRoute(true).size());
+        assertEquals(new TrainTotals(1, 2, 0, 90000), yard.getTotalsByRoute(true).get("Amsterdam to Berlin"));
+        assertEquals(500, yard.getTotalsByRoute(true).get("Utrecht to Rome").getNumberOfTrains());
+    }
+
+    @Test
+    public void T42_yardFileRoundTrip() throws IOException {
+        yard.addLocomotive(new Locomotive(11111, 4));
+        yard.createTrain(new Locomotive(22222, 4, 250000), "Utrecht", "Z\u00fcrich");
+        Path file = Files.createTempFile("yard", ".bin");
+        try {
+            YardWriter.write(yard, file);
+            Yard loaded = YardReader.read(file);
+
+            assertEquals(5, loaded.getLocomotives().size());
+            assertEquals(yard.getTrains().size(), loaded.getTrains().size());
+            assertEquals(yard.getTotalsByRoute(false), loaded.getTotalsByRoute(false));
+            for (int t = 0; t < yard.getTrains().size(); t++) {
+                assertEquals(yard.getTrains().get(t).toString(), loaded.getTrains().get(t).toString());
+            }
+            assertEquals(3, loaded.findPositionOfWagon(8003));
+            assertTrue(loaded.findWagonById(9001) instanceof FreightWagon);
+            assertSame(loaded.getLocomotives().get(0), loaded.getTrains().get(0).getEngine());
+            assertEquals(250000, loaded.getLocomotives().get(4).getMaxPullingWeight());
+            assertEquals(Locomotive.NO_WEIGHT_LIMIT, loaded.getLocomotives().get(3).getMaxPullingWeight());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void T42_readerRejectsOtherFiles() throws IOException {
+        Path file = Files.createTempFile("yard", ".bin");
+        try {
+            Files.write(file, "origin,destination".getBytes());
+            assertThrows(IOException.class, () -> YardReader.read(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void T42_readerRejectsCorruptCounts() throws IOException {
+        Path file = Files.createTempFile("yard", ".bin");
+        try {
+            YardWriter.write(yard, file);
+            byte[] valid = Files.readAllBytes(file);
+            // the counts follow the magic, version and generation
+            int locomotives = ByteBuffer.wrap(valid).getInt(14);
+
+            byte[] corrupt = valid.clone();
+            ByteBuffer.wrap(corrupt).putInt(14, -1);
+            Files.write(file, corrupt);
+            IOException exception = assertThrows(IOException.class, () -> YardReader.read(file));
+            assertTrue(exception.getMessage().contains("offset 14"));
+
+            corrupt = valid.clone();
+            ByteBuffer.wrap(corrupt).putInt(18, Integer.MAX_VALUE);
+            Files.write(file, corrupt);
+            assertThrows(IOException.class, () -> YardReader.read(file));
+
+            // the origin of the first train follows its locomotive index
+            corrupt = valid.clone();
+            ByteBuffer.wrap(corrupt).putShort(26 + 12 * locomotives + 4, (short) -2);
+            Files.write(file, corrupt);
+            assertThrows(IOException.class, () -> YardReader.read(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void T43_journalReplaysShuntingAfterTheSnapshot() throws IOException {
+        Path directory = Files.createTempDirectory("yard");
+        Path snapshot = directory.resolve("yard.bin");
+        Path journalFile = directory.resolve("yard.journal");
+        try {
+            Journal journal = Journal.open(journalFile, snapshot, 4);
+            journal.checkpoint(yard, snapshot);
+            yard.setListener(journal);
+
+            Train outside = new Train(new Locomotive(7, 10), "Amsterdam", "Rome");
+            outside.attachToRear(new PassengerWagon(8301, 25));
+            outside.attachToRear(new PassengerWagon(8302, 25));
+
+            amsterdamParis.insertAtFront(new PassengerWagon(8000, 40));
+            amsterdamParis.insertAtPosition(3, new PassengerWagon(8010, 35));
+            amsterdamParis.moveOneWagon(8003, amsterdamLondon);
+            amsterdamParis.splitAtPosition(5, amsterdamLondon);
+            amsterdamLondon.reverse();
+            amsterdamLondon.moveOneWagon(8101, outside);
+            outside.moveOneWagon(8301, amsterdamLondon);
+            amsterdamParis.attachToRear(amsterdamLondon.findWagonAtPosition(3));
+            Train utrechtBrussels = yard.createTrain(new Locomotive(31415, 3, 80000), "Utrecht", "Brussels");
+            utrechtBrussels.attachToRear(outside.getFirstWagon());
+            yard.removeTrain(amsterdamBerlin);
+            amsterdamParis.setFirstWagon(amsterdamParis.findWagonAtPosition(2));
+            Wagon leaving = amsterdamLondon.getLastWagonAttached();
+            amsterdamLondon.splitAtPosition(amsterdamLondon.getNumberOfWagons(), outside);
+            Train visiting = new Train(new Locomotive(8, 10), "Rome", "Amsterdam");
+            visiting.attachAllToRear(new PassengerWagon(8401, 30), new PassengerWagon(8402, 30), new PassengerWagon(8403, 30));
+            assertTrue(amsterdamLondon.spliceAtPosition(2, visiting, 2, 3));
+            assertTrue(amsterdamParis.spliceAtPosition(1, amsterdamLondon, 2, 3));
+            assertTrue(visiting.spliceAtPosition(2, amsterdamParis, 1, 1));
+            journal.close();
+
+            Yard recovered = Journal.recover(snapshot, journalFile);
+            assertEquals(yard.getTrains().size(), recovered.getTrains().size());
+            assertEquals(yard.getLocomotives().size(), recovered.getLocomotives().size());
+            assertEquals(80000, recovered.getLocomotives().get(3).getMaxPullingWeight());
+            for (int t = 0; t < yard.getTrains().size(); t++) {
+                assertEquals(yard.getTrains().get(t).toString(), recovered.getTrains().get(t).toString());
+            }
+            assertEquals(yard.getTotalsByRoute(false), recovered.getTotalsByRoute(false));
+            assertEquals(yard.findPositionOfWagon(8101), recovered.findPositionOfWagon(8101));
+            assertNull(recovered.findWagonById(leaving.getId()));
+            assertNull(recovered.findWagonById(9001));
+
+            // a crash while writing leaves an incomplete entry at the end, which is ignored
+            Files.write(journalFile, new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+            recovered = Journal.recover(snapshot, journalFile);
+            assertEquals(yard.getTotals(false), recovered.getTotals(false));
+        } finally {
+            Files.deleteIfExists(journalFile);
+            Files.deleteIfExists(snapshot);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void T43_crashDuringCheckpointDoesNotReplayTheJournalTwice() throws IOException {
+        Path directory = Files.createTempDirectory("yard");
+        Path snapshot = directory.resolve("yard.bin");
+        Path journalFile = directory.resolve("yard.journal");
+        try {
+            Journal journal = Journal.open(journalFile, snapshot, 4);
+            journal.checkpoint(yard, snapshot);
+            yard.setListener(journal);
+            amsterdamParis.reverse();
+            amsterdamParis.insertAtFront(new PassengerWagon(8000, 40));
+            amsterdamParis.moveOneWagon(8003, amsterdamLondon);
+            journal.commit();
+            byte[] journalBeforeCheckpoint = Files.readAllBytes(journalFile);
+
+            // the crash hits after the new snapshot replaced the old one, before the journal was emptied
+            journal.checkpoint(yard, snapshot);
+            journal.close();
+            Files.write(journalFile, journalBeforeCheckpoint);
+
+            Yard recovered = Journal.recover(snapshot, journalFile);
+            for (int t = 0; t < yard.getTrains().size(); t++) {
+                assertEquals(yard.getTrains().get(t).toString(), recovered.getTrains().get(t).toString());
+            }
+            assertEquals(yard.getTotals(false), recovered.getTotals(false));
+
+            // after the restart the same journal is reopened, the changes from then on must survive
+            journal = Journal.open(journalFile, snapshot, 1);
+            recovered.setListener(journal);
+            Train london = recovered.getTrains().get(1);
+            london.reverse();
+            assertTrue(london.attachToRear(new PassengerWagon(8500, 30)));
+            journal.close();
+            Yard recoveredAgain = Journal.recover(snapshot, journalFile);
+            assertEquals(london.toString(), recoveredAgain.getTrains().get(1).toString());
+            assertNotNull(recoveredAgain.findWagonById(8500));
+        } finally {
+            Files.deleteIfExists(journalFile);
+            Files.deleteIfExists(snapshot);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void T43_failedJournalWriteLeavesTheBatchSeparate() throws IOException {
+        Path journalFile = Files.createTempFile("yard", ".journal");
+        try {
+            Journal journal = Journal.open(journalFile, journalFile.resolveSibling("no-snapshot.bin"), 1);
+            yard.setListener(journal);
+            journal.close();
+
+            FreightWagon wagon1 = new FreightWagon(9101, 30000);
+            FreightWagon wagon2 = new FreightWagon(9102, 30000);
+            assertThrows(UncheckedIOException.class, () -> amsterdamBerlin.attachAllToRear(wagon1, wagon2));
+            assertFalse(wagon1.hasNextWagon());
+            assertFalse(wagon2.hasPreviousWagon());
+            assertEquals(2, amsterdamBerlin.getNumberOfWagons());
+        } finally {
+            Files.delete(journalFile);
+        }
+    }
+
+    @Test
+    public void T44_importerBuildsTrainsAndReportsRejectedLines() throws IOException {
+        String csv = "locNumber,maxWagons,origin,destination,wagonId,type,capacity\n"
+                + "1001,3,Utrecht,Brussels,7001,passenger,40\n"
+                + "1001,3,Utrecht,Brussels,7002,passenger,30\n"
+                + "1001,3,Utrecht,Brussels,7003,freight,30000\n"
+                + "1001,3,Utrecht,Brussels,8001,passenger,40\n"
+                + "1001,3,Utrecht,Brussels,7002,passenger,40\n"
+                + "1002,1,Utrecht,\"Den Haag, Centraal\",7101,freight,30000\n"
+                + "1001,3,Utrecht,Brussels,7004,passenger,20\n"
+                + "1001,3,Utrecht,Brussels,7005,passenger,20\n"
+                + "1002,1,Utrecht,\"Den Haag, Centraal\",7102,freight,30000\n"
+                + "1003,5,Utrecht,Gent,7201,cargo,10\n"
+                + "1003,5,Utrecht\n"
+                + "1001,4,Utrecht,Brussels,7006,passenger,20\n";
+        List<String> rejected = new ArrayList<>();
+        ConsistImporter importer = new ConsistImporter(yard, (line, text, reason) -> rejected.add(line + " " + reason));
+
+        assertEquals(4, importer.importCsv(new StringReader(csv)));
+        assertEquals(List.of("4 TYPE_MISMATCH", "5 DUPLICATE_ID", "6 DUPLICATE_ID", "9 CAPACITY",
+                "10 CAPACITY", "11 MALFORMED", "12 MALFORMED", "13 LOCOMOTIVE_MISMATCH"), rejected);
+        assertEquals(Rejection.CAPACITY, ConsistImporter.ImportError.CAPACITY.getRejection());
+        assertNull(ConsistImporter.ImportError.MALFORMED.getRejection());
+        Train utrechtBrussels = yard.findTrainOfWagon(7001);
+        assertEquals(3, utrechtBrussels.getNumberOfWagons());
+        assertEquals(90, utrechtBrussels.getTotalNumberOfSeats());
+        assertEquals("Den Haag, Centraal", yard.findTrainOfWagon(7101).getDestination());
+
+        String json = "{\"locNumber\": 1001, \"maxWagons\": 3, \"origin\": \"Utrecht\", \"destination\": \"Gent\","
+                + " \"wagonId\": 7301, \"type\": \"freight\", \"capacity\": 25000}\n"
+                + "{\"locNumber\": 1001, \"wagonId\": 7302}\n";
+        rejected.clear();
+        assertEquals(1, importer.importJsonLines(new StringReader(json)));
+        assertEquals(List.of("2 MALFORMED"), rejected);
+        assertEquals(25000, yard.findTrainOfWagon(7301).getTotalMaxWeight());
+        assertSame(utrechtBrussels.getEngine(), yard.findTrainOfWagon(7301).getEngine());
+        // escapes in strings, including an escaped quote, are resolved
+        json = "{\"locNumber\": 1004, \"maxWagons\": 3, \"origin\": \"Utrecht\", \"destination\": \"\\\"Den\\u0020Haag\\\\CS\\\"\","
+                + " \"wagonId\": 7401, \"type\": \"passenger\", \"capacity\": 30}\n"
+                + "{\"locNumber\": 1004, \"maxWagons\": 3, \"origin\": \"Utrecht\", \"destination\": \"Gent\\q\","
+                + " \"wagonId\": 7402, \"type\": \"passenger\", \"capacity\": 30}\n";
+        rejected.clear();
+        assertEquals(1, importer.importJsonLines(new StringReader(json)));
+        assertEquals(List.of("2 MALFORMED"), rejected);
+        assertEquals("\"Den Haag\\CS\"", yard.findTrainOfWagon(7401).getDestination());
+    }
+}